@@ -0,0 +1,180 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ * Benchmarks for Scanner.scanTokens, Parser.parse and Interpreter.interpret
+ * over the programs in Corpus, and for interpret with the Jit at the --jit
+ * threshold. The Jit compiles during the warmup iterations, so its figures
+ * leave javac's time out. They are about loops that run long enough to pay
+ * for it.
+ *
+ * Each benchmark runs in timed iterations the way JMH does: warmup
+ * iterations first, then measured ones, each calling the operation as often
+ * as it can in the iteration time. For every benchmark it reports
+ * throughput, the bytes allocated per operation by the benchmark thread
+ * (the gc.alloc.rate.norm figure of JMH's GC profiler), the allocation rate
+ * and the collections that happened while measuring.
+ *
+ * Usage: bench [-wi iterations] [-i iterations] [-t millis] [filter]
+ *
+ * The filter is a regular expression matched against "benchmark.program".
+ */
+class Benchmark {
+    private interface Operation {
+        int run();
+    }
+
+    private static int warmupIterations = 3;
+    private static int iterations = 5;
+    private static long iterationMillis = 1000;
+
+    // Results are summed here so the JIT cannot drop the work.
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        Pattern filter = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi": warmupIterations = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-t": iterationMillis = Long.parseLong(args[++i]); break;
+                default: filter = Pattern.compile(args[i]); break;
+            }
+        }
+
+        PrintStream out = System.out;
+        // The programs print, keep that out of the measurement.
+        PrintWriter discard = new PrintWriter(Writer.nullWriter());
+        ErrorReporter reporter = new ErrorReporter(System.err);
+
+        out.printf("%-32s %14s %12s %14s %12s %6s %8s%n",
+                "Benchmark", "ops/s", "error", "alloc B/op", "alloc MB/s", "gc", "gc ms");
+        for (Map.Entry<String, String> program : Corpus.programs().entrySet()) {
+            String name = program.getKey();
+            String source = program.getValue();
+
+            TokenBuffer tokens = new Scanner(source, reporter).scanTokens();
+            List<Stmt> statements = new Parser(tokens, reporter).parse();
+            new Resolver(reporter).resolve(statements);
+            Interpreter interpreter = new Interpreter(reporter, discard);
+            interpreter.interpret(statements);
+            if (reporter.hadError()) {
+                throw new IllegalStateException("Corpus program " + name + " has errors.");
+            }
+
+            measure(out, filter, "scan." + name, () -> new Scanner(source, reporter).scanTokens().size());
+            measure(out, filter, "parse." + name, () -> new Parser(tokens, reporter).parse().size());
+            measure(out, filter, "interpret." + name, () -> {
+                interpreter.interpret(statements);
+                return statements.size();
+            });
+
+            // Compiled code is kept in the tree, so the Jit gets its own.
+            if (Javac.available()) {
+                List<Stmt> jitted = new Parser(tokens, reporter).parse();
+                new Resolver(reporter).resolve(jitted);
+                Interpreter jit = new Interpreter(reporter, discard);
+                jit.enableJit(Options.JIT_THRESHOLD);
+                measure(out, filter, "jit." + name, () -> {
+                    jit.interpret(jitted);
+                    return jitted.size();
+                });
+            }
+        }
+        out.println("(sink " + sink + ")");
+    }
+
+    private static void measure(PrintStream out, Pattern filter, String benchmark, Operation operation) {
+        if (filter != null && !filter.matcher(benchmark).find()) return;
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        double[] throughput = new double[iterations];
+        long operations = 0;
+        long nanos = 0;
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        long allocated = -threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long ops = iterate(operation);
+            long elapsed = System.nanoTime() - start;
+            throughput[i] = ops * 1e9 / elapsed;
+            operations += ops;
+            nanos += elapsed;
+        }
+        allocated += threads.getThreadAllocatedBytes(thread);
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        out.printf("%-32s %14.3f %12.3f %14.1f %12.1f %6d %8d%n",
+                benchmark, mean(throughput), error(throughput),
+                (double) allocated / operations,
+                allocated / (nanos / 1e9) / (1024 * 1024),
+                gcCount, gcMillis);
+    }
+
+    /**
+     * Runs the operation for one iteration time.
+     *
+     * @return how many times it ran
+     */
+    private static long iterate(Operation operation) {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        long ops = 0;
+        do {
+            sink += operation.run();
+            ops++;
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) sum += value;
+        return sum / values.length;
+    }
+
+    /**
+     * Half width of the 99.9% confidence interval, like JMH's error column,
+     * using the normal approximation.
+     */
+    private static double error(double[] values) {
+        if (values.length < 2) return Double.NaN;
+        double mean = mean(values);
+        double squares = 0;
+        for (double value : values) squares += (value - mean) * (value - mean);
+        double deviation = Math.sqrt(squares / (values.length - 1));
+        return 3.29 * deviation / Math.sqrt(values.length);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : gcs()) count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : gcs()) millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    private static List<GarbageCollectorMXBean> gcs() {
+        return ManagementFactory.getGarbageCollectorMXBeans();
+    }
+}
@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Synthetic Lox programs for the benchmarks. Each stresses one shape the
+ * front end and the Interpreter see in generated scripts. Output goes to
+ * print statements, which the benchmark sends to a null stream.
+ */
+final class Corpus {
+    private Corpus() {}
+
+    static Map<String, String> programs() {
+        Map<String, String> programs = new LinkedHashMap<>();
+        programs.put("deep_expressions", deepExpressions(200, 60));
+        programs.put("straight_line", straightLine(5000));
+        programs.put("nested_blocks", nestedBlocks(200, 16));
+        programs.put("string_heavy", stringHeavy(2000));
+        programs.put("hot_loop", hotLoop(200000));
+        programs.put("nested_loops", nestedLoops(20, 10000));
+        return programs;
+    }
+
+    /**
+     * Statements whose expression nests `depth` parenthesized operators.
+     */
+    static String deepExpressions(int statements, int depth) {
+        StringBuilder source = new StringBuilder("var a = 3;\n");
+        String[] operators = {" + ", " * ", " - ", " / "};
+        for (int i = 0; i < statements; i++) {
+            StringBuilder expr = new StringBuilder("a");
+            for (int d = 0; d < depth; d++) {
+                expr.insert(0, "(" + (d % 7 + 1) + operators[d % operators.length]).append(")");
+            }
+            source.append("var e").append(i % 10).append(" = ").append(expr).append(";\n");
+        }
+        source.append("print e0;\n");
+        return source.toString();
+    }
+
+    /**
+     * Long code without any nesting: declarations, arithmetic and
+     * comparisons on globals.
+     */
+    static String straightLine(int lines) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            source.append("var v").append(i).append(" = 0;\n");
+        }
+        for (int i = 0; i < lines; i++) {
+            String name = "v" + (i % 50);
+            switch (i % 4) {
+                case 0: source.append("var ").append(name).append(" = ").append(i).append(";\n"); break;
+                case 1: source.append(name).append(" = ").append(name).append(" * 2 + 1;\n"); break;
+                case 2: source.append("if (").append(name).append(" > 100) ").append(name).append(" = 0;\n"); break;
+                default: source.append(name).append(" == ").append(i).append(";\n"); break;
+            }
+        }
+        source.append("print v0;\n");
+        return source.toString();
+    }
+
+    /**
+     * Blocks nested `depth` deep, each declaring a local that reads the
+     * locals of the blocks around it.
+     */
+    static String nestedBlocks(int repeats, int depth) {
+        StringBuilder source = new StringBuilder();
+        for (int r = 0; r < repeats; r++) {
+            for (int d = 0; d < depth; d++) {
+                source.append("{ var l").append(d).append(" = ");
+                source.append(d == 0 ? String.valueOf(r) : "l" + (d - 1) + " + 1");
+                source.append(";\n");
+                if (d > 2) {
+                    source.append("l").append(d).append(" = l").append(d).append(" + l0 * l")
+                            .append(d / 2).append(";\n");
+                }
+                source.append("{ }\n");
+            }
+            source.append("print l").append(depth - 1).append(";\n");
+            for (int d = 0; d < depth; d++) source.append("}");
+            source.append("\n");
+        }
+        return source.toString();
+    }
+
+    /**
+     * One long loop of arithmetic on globals.
+     */
+    static String hotLoop(int iterations) {
+        return "var sum = 0;\n"
+                + "var i = 0;\n"
+                + "while (i < " + iterations + ") {\n"
+                + "  sum = sum + i;\n"
+                + "  i = i + 1;\n"
+                + "}\n"
+                + "print sum;\n";
+    }
+
+    /**
+     * A loop entered over and over, on locals of the loop around it, with a
+     * local of its own and a branch.
+     */
+    static String nestedLoops(int outer, int inner) {
+        return "var total = 0;\n"
+                + "var n = 0;\n"
+                + "while (n < " + outer + ") {\n"
+                + "  var j = 0;\n"
+                + "  var acc = 0;\n"
+                + "  while (j < " + inner + ") {\n"
+                + "    var k = j * 2;\n"
+                + "    if (k > 100) acc = acc + k; else acc = acc - 1;\n"
+                + "    j = j + 1;\n"
+                + "  }\n"
+                + "  total = total + acc;\n"
+                + "  n = n + 1;\n"
+                + "}\n"
+                + "print total;\n";
+    }
+
+    /**
+     * String literals, concatenation and string comparisons.
+     */
+    static String stringHeavy(int lines) {
+        StringBuilder source = new StringBuilder("var s = \"lorem\";\n");
+        for (int i = 0; i < lines; i++) {
+            switch (i % 3) {
+                case 0: source.append("var t").append(i % 20).append(" = s + \" ipsum dolor sit amet ").append(i).append("\";\n"); break;
+                case 1: source.append("print \"consectetur\" + \" adipiscing\" + s;\n"); break;
+                default: source.append("s == \"lorem\";\n"); break;
+            }
+        }
+        return source.toString();
+    }
+}
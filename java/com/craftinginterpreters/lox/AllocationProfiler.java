@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Counts the objects the Interpreter allocates for a program, by Lox line
+ * and by what they are, to find the lines that make the garbage.
+ *
+ * The Interpreter reports an allocation where it makes one, with the line
+ * of the node that makes it:
+ *
+ *   NUMBER       a Double boxed for the result of arithmetic
+ *   STRING       a String and its bytes from concatenation
+ *   ENVIRONMENT  an Environment and its slots for a block with locals
+ *
+ * The sizes are estimates for a 64 bit JVM with compressed pointers. The
+ * report compares their sum to what the JVM says the thread allocated
+ * while running, the rest being the interpreter's own overhead and the
+ * allocations it doesn't track, such as globals and printing.
+ *
+ * A profiler belongs to one Interpreter and is not thread-safe.
+ */
+final class AllocationProfiler {
+    enum Category { NUMBER, STRING, ENVIRONMENT }
+
+    // Hot lines in the report.
+    static final int TOP = 20;
+
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int DOUBLE_SIZE = align(HEADER + 8);
+    private static final int STRING_SIZE = align(HEADER + 4 + 4 + 1 + 1);
+    private static final int ENVIRONMENT_SIZE = align(HEADER + 3 * 4);
+
+    private static final int CATEGORIES = Category.values().length;
+
+    // Indexed by category and then line.
+    private long[][] objects = new long[CATEGORIES][64];
+    private long[][] bytes = new long[CATEGORIES][64];
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final long thread = Thread.currentThread().getId();
+    private final long startBytes = threads.getThreadAllocatedBytes(thread);
+    private long measuredBytes = -1;
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    void number(int line) {
+        add(Category.NUMBER, line, 1, DOUBLE_SIZE);
+    }
+
+    void string(int line, String value) {
+        boolean latin1 = true;
+        for (int i = 0; i < value.length() && latin1; i++) {
+            latin1 = value.charAt(i) < 256;
+        }
+        int array = align(ARRAY_HEADER + value.length() * (latin1 ? 1 : 2));
+        add(Category.STRING, line, 2, STRING_SIZE + array);
+    }
+
+    void environment(int line, int slots) {
+        add(Category.ENVIRONMENT, line, 2, ENVIRONMENT_SIZE + align(ARRAY_HEADER + 4 * slots));
+    }
+
+    private void add(Category category, int line, int count, int size) {
+        if (line >= objects[0].length) {
+            int length = Math.max(line + 1, objects[0].length * 2);
+            for (int i = 0; i < CATEGORIES; i++) {
+                objects[i] = Arrays.copyOf(objects[i], length);
+                bytes[i] = Arrays.copyOf(bytes[i], length);
+            }
+        }
+        objects[category.ordinal()][line] += count;
+        bytes[category.ordinal()][line] += size;
+    }
+
+    /**
+     * Takes the JVM's figure for the thread. Call once the program is
+     * done, on the thread that ran it.
+     */
+    void stop() {
+        if (measuredBytes >= 0) return;
+        measuredBytes = threads.getThreadAllocatedBytes(thread) - startBytes;
+    }
+
+    /**
+     * Prints the totals by category and the TOP lines with the most bytes.
+     *
+     * @param err where to print
+     * @param source the program's source, to show the lines, or null
+     */
+    void report(PrintStream err, String source) {
+        stop();
+        long allObjects = 0;
+        long allBytes = 0;
+        long[] categoryObjects = new long[CATEGORIES];
+        long[] categoryBytes = new long[CATEGORIES];
+        long[] lineBytes = new long[objects[0].length];
+        long[] lineObjects = new long[objects[0].length];
+        for (int category = 0; category < CATEGORIES; category++) {
+            for (int line = 0; line < lineBytes.length; line++) {
+                categoryObjects[category] += objects[category][line];
+                categoryBytes[category] += bytes[category][line];
+                lineObjects[line] += objects[category][line];
+                lineBytes[line] += bytes[category][line];
+            }
+            allObjects += categoryObjects[category];
+            allBytes += categoryBytes[category];
+        }
+
+        err.printf("[alloc] %d objects, %s estimated, the JVM measured %s on the thread%n",
+                allObjects, megabytes(allBytes), megabytes(measuredBytes));
+        err.printf("%-12s %12s %12s %7s%n", "category", "objects", "bytes", "bytes%");
+        for (Category category : Category.values()) {
+            int i = category.ordinal();
+            err.printf("%-12s %12d %12d %6.1f%%%n", category.name().toLowerCase(),
+                    categoryObjects[i], categoryBytes[i], percent(categoryBytes[i], allBytes));
+        }
+
+        List<Integer> lines = new ArrayList<>();
+        for (int line = 0; line < lineBytes.length; line++) {
+            if (lineObjects[line] > 0) lines.add(line);
+        }
+        lines.sort((a, b) -> lineBytes[a] != lineBytes[b]
+                ? Long.compare(lineBytes[b], lineBytes[a]) : Integer.compare(a, b));
+        String[] text = source == null ? new String[0] : source.split("\r?\n", -1);
+
+        err.printf("%6s %12s %12s %7s %12s %12s %12s  %s%n", "line", "objects", "bytes", "bytes%",
+                "number", "string", "environment", "source");
+        for (int i = 0; i < Math.min(TOP, lines.size()); i++) {
+            int line = lines.get(i);
+            String code = line >= 1 && line <= text.length ? text[line - 1].trim() : "";
+            err.printf("%6d %12d %12d %6.1f%% %12d %12d %12d  %s%n", line, lineObjects[line],
+                    lineBytes[line], percent(lineBytes[line], allBytes),
+                    bytes[Category.NUMBER.ordinal()][line], bytes[Category.STRING.ordinal()][line],
+                    bytes[Category.ENVIRONMENT.ordinal()][line], code);
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static double percent(long value, long all) {
+        return all == 0 ? 0 : 100.0 * value / all;
+    }
+}
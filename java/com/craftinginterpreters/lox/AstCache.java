@@ -0,0 +1,146 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * An on disk cache of parsed scripts, so running the same script again
+ * skips the Scanner and the Parser.
+ *
+ * A cache file is a header followed by the tree as written by AstWriter:
+ *
+ *   "LOXC"  magic
+ *   int     format version
+ *   byte[]  SHA-256 of the script's bytes
+ *
+ * A file with another magic, version or hash is stale and gets replaced.
+ * Bump VERSION whenever the node types or the AstWriter format change.
+ *
+ * The cache only holds what the Parser produced. Resolving and optimizing
+ * still happen on every run, so the cache does not depend on the options.
+ */
+class AstCache {
+    private static final byte[] MAGIC = { 'L', 'O', 'X', 'C' };
+    static final int VERSION = 5;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = MAGIC.length + 4 + HASH_LENGTH;
+
+    private final Path file;
+    private final byte[] hash;
+
+    private AstCache(Path file, byte[] hash) {
+        this.file = file;
+        this.hash = hash;
+    }
+
+    /**
+     * The cache for a script, next to it as "name.loxc", or in the
+     * directory named after the source hash.
+     *
+     * @param script path of the script
+     * @param directory where to keep cache files, null for next to the script
+     * @param source the script's bytes
+     * @return AstCache
+     */
+    static AstCache of(Path script, Path directory, byte[] source) {
+        byte[] hash = sha256(source);
+        if (directory != null) {
+            return new AstCache(directory.resolve(hex(hash) + ".loxc"), hash);
+        }
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return new AstCache(script.resolveSibling(name + ".loxc"), hash);
+    }
+
+    /**
+     * Maps the cache file and reads the statements out of it.
+     *
+     * @return the statements, null when there is no usable cache file
+     */
+    List<Stmt> load() {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH) return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) return null;
+            byte[] cached = new byte[HASH_LENGTH];
+            buffer.get(cached);
+            if (!Arrays.equals(cached, hash)) return null;
+
+            return new AstReader(buffer).read();
+        } catch (NoSuchFileException error) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IllegalStateException
+                | ArrayIndexOutOfBoundsException | NegativeArraySizeException error) {
+            // A damaged file is a miss, it gets written again.
+            return null;
+        }
+    }
+
+    /**
+     * Writes the statements to the cache file. Runs of the same script can
+     * race, so it writes a temporary file and moves it into place.
+     *
+     * @param statements what the Parser produced
+     * @throws IOException if the file can't be written, the temporary file
+     *         is removed again
+     */
+    void store(List<Stmt> statements) throws IOException {
+        Path temporary = null;
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temporary);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                new AstWriter().write(statements, out);
+            }
+            Files.move(temporary, file,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException error) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                }
+            }
+            throw error;
+        }
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException error) {
+            // Every Java platform is required to provide SHA-256.
+            throw new AssertionError(error);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
@@ -39,12 +39,12 @@ class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitAssignExpr(Assign expr) {
-        return parenthesize2("=", expr.name.lexeme, expr.value);
+        return parenthesize2("=", expr.name.lexeme(), expr.value);
     }
 
     @Override
     public String visitBinaryExpr(Binary expr) {
-        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
@@ -54,7 +54,7 @@ class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitGetExpr(Get expr) {
-        return parenthesize2(".", expr.object, expr.name.lexeme);
+        return parenthesize2(".", expr.object, expr.name.lexeme());
     }
 
     @Override
@@ -70,12 +70,12 @@ class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitLogicalExpr(Logical expr) {
-        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
     public String visitSetExpr(Set expr) {
-        return parenthesize2("=", expr.Object, expr.name.lexeme, expr.value);
+        return parenthesize2("=", expr.object, expr.name.lexeme(), expr.value);
     }
 
     @Override
@@ -90,12 +90,12 @@ class AstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitUnaryExpr(Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.right);
     }
 
     @Override
     public String visitVariableExpr(Variable expr) {
-        return expr.name.lexeme;
+        return expr.name.lexeme();
     }    
 
     private String parenthesize(String name, Expr... exprs) {
@@ -126,7 +126,7 @@ class AstPrinter implements Expr.Visitor<String> {
             if (part instanceof Expr) {
                 builder.append(((Expr)part).accept(this));
             } else if (part instanceof Token) {
-                builder.append(((Token)part).lexeme);
+                builder.append(((Token)part).lexeme());
             } else if (part instanceof List) {
                 transform(builder, parts);
             } else {
@@ -0,0 +1,176 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+/*
+ * Reads a syntax tree written by AstWriter straight out of a buffer, which
+ * the AstCache maps from the cache file.
+ */
+class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer buffer;
+    private String[] strings;
+
+    AstReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    List<Stmt> read() {
+        strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int count = buffer.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(stmt());
+        }
+        return statements;
+    }
+
+    private Stmt stmt() {
+        byte tag = buffer.get();
+        if (tag == NULL) return null;
+        int line = buffer.getInt();
+        Stmt statement = stmt(tag);
+        statement.line = line;
+        return statement;
+    }
+
+    private Stmt stmt(byte tag) {
+        switch (tag) {
+            case EXPRESSION: return new Stmt.Expression(expr());
+            case PRINT: return new Stmt.Print(expr());
+            case VAR: {
+                Token name = token();
+                return new Stmt.Var(name, expr());
+            }
+            case BLOCK: return new Stmt.Block(stmts());
+            case IF: {
+                Expr condition = expr();
+                Stmt thenBranch = stmt();
+                return new Stmt.If(condition, thenBranch, stmt());
+            }
+            case WHILE: {
+                Expr condition = expr();
+                return new Stmt.While(condition, stmt());
+            }
+            case FUNCTION: {
+                Token name = token();
+                int count = buffer.getInt();
+                List<Token> params = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    params.add(token());
+                }
+                return new Stmt.Function(name, params, stmts());
+            }
+            case RETURN: {
+                Token keyword = token();
+                return new Stmt.Return(keyword, expr());
+            }
+            case CLASS: {
+                Token name = token();
+                Expr.Variable superclass = (Expr.Variable) expr();
+                List<Stmt.Function> methods = new ArrayList<>();
+                for (Stmt method : stmts()) {
+                    methods.add((Stmt.Function) method);
+                }
+                return new Stmt.Class(name, superclass, methods);
+            }
+            default:
+                throw new IllegalStateException("Unknown statement tag " + tag + ".");
+        }
+    }
+
+    private List<Stmt> stmts() {
+        int count = buffer.getInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(stmt());
+        }
+        return statements;
+    }
+
+    private Expr expr() {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL: return null;
+            case ASSIGN: {
+                Token name = token();
+                return new Expr.Assign(name, expr());
+            }
+            case BINARY: {
+                Expr left = expr();
+                Token operator = token();
+                return new Expr.Binary(left, operator, expr());
+            }
+            case CALL: {
+                Expr callee = expr();
+                Token paren = token();
+                int count = buffer.getInt();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    arguments.add(expr());
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GET: {
+                Expr object = expr();
+                return new Expr.Get(object, token());
+            }
+            case GROUPING: return new Expr.Grouping(expr());
+            case LITERAL: return new Expr.Literal(value());
+            case LOGICAL: {
+                Expr left = expr();
+                Token operator = token();
+                return new Expr.Logical(left, operator, expr());
+            }
+            case SET: {
+                Expr object = expr();
+                Token name = token();
+                return new Expr.Set(object, name, expr());
+            }
+            case SUPPER: {
+                Token keyword = token();
+                return new Expr.Supper(keyword, token());
+            }
+            case THIS: return new Expr.This(token());
+            case UNARY: {
+                Token operator = token();
+                return new Expr.Unary(operator, expr());
+            }
+            case VARIABLE: return new Expr.Variable(token());
+            default:
+                throw new IllegalStateException("Unknown expression tag " + tag + ".");
+        }
+    }
+
+    private Token token() {
+        TokenType type = TYPES[buffer.get()];
+        String lexeme = strings[buffer.getInt()];
+        int line = buffer.getInt();
+        return new Token(type, lexeme, value(), line);
+    }
+
+    private Object value() {
+        byte tag = buffer.get();
+        switch (tag) {
+            case VALUE_NIL: return null;
+            case VALUE_TRUE: return true;
+            case VALUE_FALSE: return false;
+            case VALUE_NUMBER: return buffer.getDouble();
+            case VALUE_STRING: return strings[buffer.getInt()];
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag + ".");
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Supper;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+
+/*
+ * Serializes a syntax tree for the AstCache. The tree is written in pre
+ * order, every node as a one byte tag followed by its fields. A missing
+ * node, such as an if without else, is the NULL tag. A statement's tag is
+ * followed by its line. Lexemes and string literals go to a string table
+ * written ahead of the nodes, so a name used a thousand times is stored
+ * once.
+ *
+ * A list is its size followed by its elements.
+ *
+ * A token is its type ordinal, its lexeme's index in the string table,
+ * its line and its literal. A value is a tag followed by the number or
+ * the string index.
+ *
+ * AstReader reads the same format back.
+ */
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final byte NULL = 0;
+
+    static final byte ASSIGN = 1;
+    static final byte BINARY = 2;
+    static final byte CALL = 3;
+    static final byte GET = 4;
+    static final byte GROUPING = 5;
+    static final byte LITERAL = 6;
+    static final byte LOGICAL = 7;
+    static final byte SET = 8;
+    static final byte SUPPER = 9;
+    static final byte THIS = 10;
+    static final byte UNARY = 11;
+    static final byte VARIABLE = 12;
+
+    static final byte EXPRESSION = 32;
+    static final byte PRINT = 33;
+    static final byte VAR = 34;
+    static final byte BLOCK = 35;
+    static final byte IF = 36;
+    static final byte WHILE = 37;
+    static final byte FUNCTION = 38;
+    static final byte RETURN = 39;
+    static final byte CLASS = 40;
+
+    static final byte VALUE_NIL = 0;
+    static final byte VALUE_TRUE = 1;
+    static final byte VALUE_FALSE = 2;
+    static final byte VALUE_NUMBER = 3;
+    static final byte VALUE_STRING = 4;
+
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private final ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+    private final DataOutputStream nodes = new DataOutputStream(nodeBytes);
+
+    /**
+     * Writes the string table and then the statements.
+     *
+     * @param statements the program
+     * @param out where to write
+     */
+    void write(List<Stmt> statements, DataOutputStream out) throws IOException {
+        nodes.writeInt(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+
+        out.writeInt(strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        nodeBytes.writeTo(out);
+    }
+
+    private void write(Stmt statement) {
+        if (statement == null) {
+            tag(NULL);
+        } else {
+            statement.accept(this);
+        }
+    }
+
+    private void write(Expr expression) {
+        if (expression == null) {
+            tag(NULL);
+        } else {
+            expression.accept(this);
+        }
+    }
+
+    private void write(List<?> list) {
+        writeInt(list.size());
+        for (Object element : list) {
+            if (element instanceof Stmt) {
+                write((Stmt) element);
+            } else {
+                write((Expr) element);
+            }
+        }
+    }
+
+    private void writeTokens(List<Token> tokens) {
+        writeInt(tokens.size());
+        for (Token token : tokens) {
+            write(token);
+        }
+    }
+
+    private void tag(byte tag) {
+        try {
+            nodes.writeByte(tag);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            nodes.writeInt(value);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    private void write(Token token) {
+        tag((byte) token.type.ordinal());
+        writeInt(string(token.lexeme()));
+        writeInt(token.line);
+        writeValue(token.literal);
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            tag(VALUE_NIL);
+        } else if (value instanceof Boolean) {
+            tag((Boolean) value ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof Double) {
+            tag(VALUE_NUMBER);
+            try {
+                nodes.writeDouble((Double) value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        } else {
+            tag(VALUE_STRING);
+            writeInt(string(value.toString()));
+        }
+    }
+
+    private int string(String string) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+        return index;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        tag(ASSIGN);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        tag(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        tag(CALL);
+        write(expr.callee);
+        write(expr.paren);
+        write(expr.arguments);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        tag(GET);
+        write(expr.object);
+        write(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        tag(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        tag(LITERAL);
+        writeValue(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        tag(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        tag(SET);
+        write(expr.object);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSupperExpr(Supper expr) {
+        tag(SUPPER);
+        write(expr.keyword);
+        write(expr.method);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        tag(THIS);
+        write(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        tag(UNARY);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        tag(VARIABLE);
+        write(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        writeInt(stmt.line);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT);
+        writeInt(stmt.line);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        writeInt(stmt.line);
+        write(stmt.name);
+        write(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        writeInt(stmt.line);
+        write(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        writeInt(stmt.line);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        writeInt(stmt.line);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        writeInt(stmt.line);
+        write(stmt.name);
+        writeTokens(stmt.params);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        writeInt(stmt.line);
+        write(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        tag(CLASS);
+        writeInt(stmt.line);
+        write(stmt.name);
+        write(stmt.superclass);
+        write(stmt.methods);
+        return null;
+    }
+}
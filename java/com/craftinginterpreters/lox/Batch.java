@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Runs every script under a directory in one JVM, in parallel, one Context
+ * per script on a thread pool with a thread per core.
+ *
+ * Each script's output and errors are collected separately and printed
+ * once it is done, in path order, each under a "==> path <==" header, so
+ * the output does not depend on the scheduling. A summary goes to stderr
+ * at the end, and the batch exits with the highest exit status of its
+ * scripts.
+ */
+class Batch {
+    private static class Result {
+        final byte[] out;
+        final byte[] err;
+        // The exit status jlox would have given the script alone.
+        final int status;
+
+        Result(byte[] out, byte[] err, int status) {
+            this.out = out;
+            this.err = err;
+            this.status = status;
+        }
+    }
+
+    private Batch() {}
+
+    /**
+     * Runs the scripts and prints their output.
+     *
+     * @return the highest exit status of the scripts, 0 if all succeeded
+     */
+    static int run(Path directory, Options options) throws IOException, InterruptedException {
+        List<Path> scripts;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            scripts = paths
+                    .filter(path -> path.toString().endsWith(".lox") && Files.isRegularFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> results = new ArrayList<>();
+        for (Path script : scripts) {
+            results.add(pool.submit(() -> runScript(script, options)));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        int status = 0;
+        for (int i = 0; i < scripts.size(); i++) {
+            Result result;
+            try {
+                result = results.get(i).get();
+            } catch (ExecutionException error) {
+                ByteArrayOutputStream trace = new ByteArrayOutputStream();
+                error.getCause().printStackTrace(new PrintStream(trace, true));
+                result = new Result(new byte[0], trace.toByteArray(),
+                        error.getCause() instanceof IOException ? 74 : 70);
+            }
+            System.out.println("==> " + scripts.get(i) + " <==");
+            System.out.write(result.out);
+            System.out.flush();
+            System.err.write(result.err);
+            System.err.flush();
+            if (result.status != 0) failed++;
+            status = Math.max(status, result.status);
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.err.println("[batch] " + scripts.size() + " scripts, " + failed + " failed, "
+                + threads + " threads, " + millis + " ms.");
+        return status;
+    }
+
+    private static Result runScript(Path script, Options options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Context context = new Context(options, new PrintWriter(out, true), new PrintStream(err, true));
+        context.runFile(script);
+        context.finish();
+        return new Result(out.toByteArray(), err.toByteArray(), context.exitCode());
+    }
+}
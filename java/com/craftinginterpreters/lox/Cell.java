@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * A local variable that a closure captured. The frame that declares it
+ * holds the Cell in the variable's slot, and every closure that uses it
+ * holds the same Cell, so they all see each other's assignments and the
+ * variable lives as long as the last of them.
+ */
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,343 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Supper;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.vm.Chunk;
+import com.craftinginterpreters.vm.OpCode;
+
+/*
+ * Compiler lowers a resolved syntax tree into a Chunk for the VM.
+ *
+ * Locals live in the VM's value stack. Every block frame the Resolver
+ * counted starts at the current number of locals on the stack, so the stack
+ * slot of a local is the base of the frame `depth` blocks out plus its
+ * `slot` inside that frame.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_OPERAND = 0xffff;
+
+    private final Chunk chunk = new Chunk();
+    // Stack slot where each open block frame starts.
+    private final List<Integer> frames = new ArrayList<>();
+    private int locals = 0;
+    private int stackDepth = 0;
+    private int maxStackDepth = 0;
+    private int line = 1;
+    private final ErrorReporter reporter;
+
+    Compiler(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    Chunk compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.RETURN, 0);
+        chunk.setMaxStack(maxStackDepth);
+        return chunk;
+    }
+
+    private void compile(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void compile(Expr expression) {
+        expression.accept(this);
+    }
+
+    /**
+     * Emits an instruction without operands.
+     *
+     * @param op OpCode
+     * @param effect how many values it pushes minus how many it pops
+     */
+    private void emit(byte op, int effect) {
+        chunk.write(op, line);
+        adjustStack(effect);
+    }
+
+    private void emit(byte op, int operand, int effect) {
+        if (operand > MAX_OPERAND) {
+            reporter.error(line, "Too many constants or locals in one chunk.");
+        }
+        chunk.write(op, line);
+        chunk.writeShort(operand, line);
+        adjustStack(effect);
+    }
+
+    private void adjustStack(int effect) {
+        stackDepth += effect;
+        if (stackDepth > maxStackDepth) maxStackDepth = stackDepth;
+    }
+
+    private int emitJump(byte op) {
+        chunk.write(op, line);
+        chunk.writeShort(0, line);
+        return chunk.count() - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = chunk.count() - offset - 2;
+        if (jump > MAX_OPERAND) {
+            reporter.error(line, "Too much code to jump over.");
+        }
+        chunk.patchShort(offset, jump);
+    }
+
+    private void emitLoop(int start) {
+        chunk.write(OpCode.LOOP, line);
+        int offset = chunk.count() - start + 2;
+        if (offset > MAX_OPERAND) {
+            reporter.error(line, "Loop body too large.");
+        }
+        chunk.writeShort(offset, line);
+    }
+
+    private int constant(Object value) {
+        return chunk.addConstant(value);
+    }
+
+    private int stackSlot(int depth, int slot) {
+        return frames.get(frames.size() - 1 - depth) + slot;
+    }
+
+    private void unsupported(Token token, String what) {
+        reporter.error(token, "Can't compile " + what + " to bytecode yet.");
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        if (expr.depth < 0) {
+            emit(OpCode.SET_GLOBAL, constant(expr.name.lexeme()), 0);
+        } else {
+            emit(OpCode.SET_LOCAL, stackSlot(expr.depth, expr.slot), 0);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(OpCode.SUBTRACT, -1); break;
+            case PLUS: emit(OpCode.ADD, -1); break;
+            case SLASH: emit(OpCode.DIVIDE, -1); break;
+            case STAR: emit(OpCode.MULTIPLY, -1); break;
+            case GREATER: emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, -1); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL, -1); break;
+            default:
+                emit(OpCode.POP, -1);
+                emit(OpCode.POP, -1);
+                emit(OpCode.NIL, 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        unsupported(expr.paren, "calls");
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        unsupported(expr.name, "property access");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if (expr.value instanceof Boolean) {
+            emit((Boolean) expr.value ? OpCode.TRUE : OpCode.FALSE, 1);
+        } else {
+            emit(OpCode.CONSTANT, constant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        unsupported(expr.operator, "logical operators");
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        unsupported(expr.name, "property assignment");
+        return null;
+    }
+
+    @Override
+    public Void visitSupperExpr(Supper expr) {
+        unsupported(expr.keyword, "'super'");
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        unsupported(expr.keyword, "'this'");
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(OpCode.NEGATE, 0); break;
+            case BANG: emit(OpCode.NOT, 0); break;
+            default:
+                emit(OpCode.POP, -1);
+                emit(OpCode.NIL, 1);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        line = expr.name.line;
+        if (expr.depth < 0) {
+            emit(OpCode.GET_GLOBAL, constant(expr.name.lexeme()), 1);
+        } else {
+            emit(OpCode.GET_LOCAL, stackSlot(expr.depth, expr.slot), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        line = stmt.name.line;
+
+        if (stmt.slot < 0) {
+            emit(OpCode.DEFINE_GLOBAL, constant(stmt.name.lexeme()), -1);
+        } else {
+            // The initializer's value stays on the stack as the local.
+            locals++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.locals == 0) {
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            return null;
+        }
+
+        int base = locals;
+        frames.add(base);
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        frames.remove(frames.size() - 1);
+        emit(OpCode.POPN, locals - base, base - locals);
+        locals = base;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        // Both paths pop the condition, count it once.
+        adjustStack(1);
+        emit(OpCode.POP, -1);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = chunk.count();
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.body);
+        emitLoop(start);
+
+        patchJump(exitJump);
+        // The loop and the exit both pop the condition, count it once.
+        adjustStack(1);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        unsupported(stmt.name, "functions");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        unsupported(stmt.keyword, "'return'");
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        unsupported(stmt.name, "classes");
+        return null;
+    }
+}
@@ -0,0 +1,254 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import com.craftinginterpreters.vm.Chunk;
+import com.craftinginterpreters.vm.VM;
+import com.craftinginterpreters.vm.VMError;
+
+/*
+ * Everything one running program owns: the Interpreter and its global
+ * Environment, the VM, the error state and where output and errors go.
+ * Contexts share nothing, so programs in different contexts can run on
+ * different threads at the same time. A single Context runs one thing at
+ * a time, and its globals carry over from one run to the next, the way
+ * the REPL needs them to.
+ */
+class Context {
+    final ErrorReporter reporter;
+    private final Options options;
+    private final PrintStream err;
+    private final Interpreter interpreter;
+    private final VM vm;
+    // Measure the Interpreter when profiling, null otherwise.
+    private Profiler profiler = null;
+    private AllocationProfiler allocations = null;
+    // What the Interpreter counted for the Metrics, null when they are off.
+    private Metrics.Counts counts = null;
+    // Nodes the optimizer removed from all the statements prepared so far.
+    private int removed = 0;
+    // The program, for the profile.
+    private String source = null;
+    private String name = "script";
+
+    Context(Options options, PrintWriter out, PrintStream err) {
+        this.options = options;
+        this.err = err;
+        this.reporter = new ErrorReporter(err);
+        this.interpreter = new Interpreter(reporter, out);
+        this.vm = new VM(out);
+
+        if ((options.profile != null || options.allocations) && options.useVM) {
+            err.println("[profile] Only the Interpreter can be profiled, not the VM.");
+        } else {
+            if (options.profile != null) {
+                profiler = new Profiler(options.profile, options.profileInterval);
+                interpreter.enableProfiler(profiler);
+            }
+            if (options.allocations) {
+                allocations = new AllocationProfiler();
+                interpreter.enableAllocationProfiler(allocations);
+            }
+        }
+
+        if (Metrics.enabled()) {
+            counts = new Metrics.Counts();
+            interpreter.enableMetrics(counts);
+        }
+
+        if (options.jitThreshold > 0 && (profiler != null || allocations != null)) {
+            // Compiled code would not report its statements.
+            err.println("[profile] The JIT is off while profiling.");
+        } else if (options.jitThreshold > 0) {
+            if (Javac.available()) {
+                interpreter.enableJit(options.jitThreshold);
+            } else {
+                err.println("[jit] No Java compiler available, running interpreted only.");
+            }
+        }
+    }
+
+    boolean hadError() {
+        return reporter.hadError();
+    }
+
+    /**
+     * The exit status for what ran so far: 70 after a runtime error, 65
+     * after any other error, 0 otherwise.
+     */
+    int exitCode() {
+        if (reporter.hadRuntimeError()) return 70;
+        return reporter.hadError() ? 65 : 0;
+    }
+
+    /**
+     * Runs a script file, streaming it or going through the AstCache if the
+     * options say so.
+     *
+     * @param path of the script
+     */
+    void runFile(Path path) throws IOException {
+        name = path.getFileName().toString();
+        if (options.stream) {
+            try (Reader reader = Files.newBufferedReader(path, Charset.defaultCharset())) {
+                runStream(reader, null);
+            }
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (!options.cache) {
+            run(new String(bytes, Charset.defaultCharset()));
+            return;
+        }
+
+        if (profiler != null || allocations != null) source = new String(bytes, Charset.defaultCharset());
+        AstCache astCache = AstCache.of(path, options.cacheDirectory, bytes);
+        List<Stmt> statements = astCache.load();
+        if (statements == null) {
+            statements = parse(new String(bytes, Charset.defaultCharset()));
+            if (hadError()) return;
+            try {
+                astCache.store(statements);
+            } catch (IOException error) {
+                err.println("[cache] Could not write the cache: " + error.getMessage());
+            }
+        }
+        execute(statements);
+    }
+
+    void run(String source) {
+        this.source = source;
+        List<Stmt> statements = parse(source);
+        if (hadError()) return;
+
+        execute(statements);
+    }
+
+    /**
+     * Prints the profiles, when profiling, and what the optimizer removed,
+     * when asked. Call once the program is done,
+     * on the thread that ran it.
+     */
+    void finish() {
+        if (options.optimizeStats) err.println("[optimizer] Removed " + removed + " nodes.");
+        if (allocations != null) allocations.report(err, source);
+        if (profiler == null) return;
+        profiler.report(err, source);
+        if (options.profileStacks != null) {
+            try {
+                profiler.writeStacks(options.profileStacks, name);
+            } catch (IOException error) {
+                err.println("[profile] Could not write the stacks: " + error.getMessage());
+            }
+        }
+    }
+
+    List<Stmt> parse(String source) {
+        LoxEvents.Scan scan = new LoxEvents.Scan();
+        scan.begin();
+        long start = Metrics.start();
+        Scanner scanner = new Scanner(source, reporter);
+        TokenBuffer tokens = scanner.scanTokens();
+        Metrics.phase("scan", start);
+        scan.end(source.length(), tokens.size());
+
+        LoxEvents.Parse parse = new LoxEvents.Parse();
+        parse.begin();
+        start = Metrics.start();
+        Parser parser = new Parser(tokens, reporter);
+        List<Stmt> statements = parser.parse();
+        Metrics.phase("parse", start);
+        parse.end(statements);
+        return statements;
+    }
+
+    /**
+     * Scans, parses and executes one top level declaration at a time, so
+     * only the statement in flight is held in memory and output starts
+     * right away. Stops at the first error.
+     *
+     * @param reader the source
+     * @param prompt told when a statement is done, when running the REPL
+     */
+    void runStream(Reader reader, PromptReader prompt) {
+        Scanner scanner = new Scanner(reader, reporter);
+        Parser parser = new Parser(scanner.streamTokens(), reporter);
+        if (prompt != null) parser.interactive();
+        while (!parser.isAtEnd()) {
+            LoxEvents.Parse parse = new LoxEvents.Parse();
+            parse.begin();
+            long start = Metrics.start();
+            List<Stmt> statement = Collections.singletonList(parser.declaration());
+            parser.discardConsumed();
+            Metrics.phase("parse", start);
+            parse.end(statement);
+            if (hadError()) break;
+
+            execute(statement);
+            if (hadError()) break;
+            if (prompt != null) prompt.statementDone();
+        }
+    }
+
+    /**
+     * Optimizes the statements when asked to and resolves them.
+     *
+     * @param statements parsed statements
+     * @return the statements to run
+     */
+    List<Stmt> prepare(List<Stmt> statements) {
+        LoxEvents.Resolve resolve = new LoxEvents.Resolve();
+        resolve.begin();
+        long start = Metrics.start();
+        if (options.optimize) {
+            Optimizer optimizer = new Optimizer();
+            statements = optimizer.optimize(statements);
+            removed += optimizer.removed();
+        }
+
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        Metrics.phase("resolve", start);
+        resolve.end(statements, options.optimize);
+        return statements;
+    }
+
+    void execute(List<Stmt> statements) {
+        statements = prepare(statements);
+        if (hadError()) return;
+
+        if (options.useVM) {
+            Chunk chunk = new Compiler(reporter).compile(statements);
+            if (hadError()) return;
+            LoxEvents.Execute execute = new LoxEvents.Execute();
+            execute.begin();
+            long start = Metrics.start();
+            try {
+                vm.interpret(chunk);
+            } catch (VMError error) {
+                reporter.runtimeError(error.getMessage(), error.line);
+            }
+            Metrics.phase("execute", start);
+            Metrics.run(true);
+            execute.end(statements.size(), "vm", reporter.hadRuntimeError());
+            return;
+        }
+
+        LoxEvents.Execute execute = new LoxEvents.Execute();
+        execute.begin();
+        long start = Metrics.start();
+        interpreter.interpret(statements);
+        Metrics.phase("execute", start);
+        Metrics.run(false);
+        if (counts != null) Metrics.record(counts);
+        execute.end(statements.size(), "interpreter", reporter.hadRuntimeError());
+    }
+}
@@ -0,0 +1,262 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Serves runs of jlox over a Unix domain socket, so a run pays neither for
+ * starting a JVM nor for cold code: the Scanner, Parser and Interpreter
+ * stay warm and JIT compiled from one run to the next.
+ *
+ * A client connects, sends one request and reads the output back on the
+ * same connection. Both directions are a sequence of frames, each a type
+ * byte, a big endian int length and that many bytes:
+ *
+ *   client to daemon
+ *     'D'  the working directory, UTF-8
+ *     'A'  one command line argument, UTF-8, as many as there are
+ *     'R'  end of the request, empty
+ *     'I'  bytes of standard input
+ *     'Z'  end of standard input, empty
+ *
+ *   daemon to client
+ *     'O'  bytes of standard output
+ *     'E'  bytes of standard error
+ *     'X'  the exit status, an int, always the last frame
+ *
+ * The arguments are run options, as Options takes them, and at most one
+ * script, resolved against the working directory. Without a script the
+ * program is read from standard input. The exit status is 64 for bad
+ * arguments, 65 for errors in the program, 70 for runtime errors and 74
+ * when the script can't be read.
+ *
+ * Each connection runs on its own thread with its own Context. util/
+ * lox_client.py is a client.
+ */
+final class Daemon {
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    private Daemon() {}
+
+    /**
+     * Listens on the socket until the process is killed.
+     *
+     * @param socket path of the socket file, replaced if it is stale
+     */
+    static void serve(Path socket) throws IOException {
+        if (Files.exists(socket)) {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+                System.err.println("[daemon] A daemon is already listening on " + socket + ".");
+                return;
+            } catch (IOException stale) {
+                Files.delete(socket);
+            }
+        }
+
+        ExecutorService pool = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "lox-daemon-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+            System.err.println("[daemon] Listening on " + socket + ".");
+
+            while (true) {
+                SocketChannel channel = server.accept();
+                pool.execute(() -> handle(channel));
+            }
+        }
+    }
+
+    private static void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream frames = new DataOutputStream(Channels.newOutputStream(channel));
+
+            Path directory = Paths.get("").toAbsolutePath();
+            List<String> arguments = new ArrayList<>();
+            for (int type = in.readByte(); type != 'R'; type = in.readByte()) {
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                String text = new String(payload, StandardCharsets.UTF_8);
+                if (type == 'D') {
+                    directory = Paths.get(text);
+                } else if (type == 'A') {
+                    arguments.add(text);
+                } else {
+                    throw new IOException("Unexpected frame " + type + " in a request.");
+                }
+            }
+            in.readInt();
+
+            PrintWriter out = new PrintWriter(new FrameOutputStream(frames, 'O'), true);
+            PrintStream err = new PrintStream(new FrameOutputStream(frames, 'E'), true);
+            int status = run(directory, arguments, new FrameInputStream(in), out, err);
+            out.flush();
+            err.flush();
+            synchronized (frames) {
+                frames.writeByte('X');
+                frames.writeInt(4);
+                frames.writeInt(status);
+                frames.flush();
+            }
+        } catch (IOException error) {
+            // The client went away or does not speak the protocol, there
+            // is nobody to tell.
+        }
+    }
+
+    /**
+     * Runs one request the way Lox.main runs its command line.
+     *
+     * @return the exit status
+     */
+    private static int run(Path directory, List<String> arguments, InputStream stdin,
+                           PrintWriter out, PrintStream err) {
+        Options options = new Options();
+        int argc = 0;
+        try {
+            while (argc < arguments.size() && options.set(arguments.get(argc))) {
+                argc++;
+            }
+        } catch (IllegalArgumentException error) {
+            err.println(error.getMessage());
+            return 64;
+        }
+        if (arguments.size() - argc > 1 || (argc < arguments.size() && arguments.get(argc).startsWith("--"))) {
+            err.println("Usage: lox_client.py [--vm] [--optimize] [--stream] [--cache | --cache-dir=dir]"
+                    + " [--jit[=threshold]]"
+                    + " [--profile[=sample[:micros]]] [--profile-stacks=file]"
+                    + " [--allocations] [script]");
+            return 64;
+        }
+        if (options.cacheDirectory != null) {
+            options.cacheDirectory = directory.resolve(options.cacheDirectory);
+        }
+        if (options.profileStacks != null) {
+            options.profileStacks = directory.resolve(options.profileStacks);
+        }
+
+        Context context = new Context(options, out, err);
+        try {
+            if (argc < arguments.size()) {
+                context.runFile(directory.resolve(arguments.get(argc)));
+            } else {
+                context.runStream(new InputStreamReader(stdin, Charset.defaultCharset()), null);
+            }
+        } catch (IOException error) {
+            err.println("Could not read " + error.getMessage() + ".");
+            context.finish();
+            return 74;
+        }
+        context.finish();
+        return context.exitCode();
+    }
+
+    /*
+     * Sends what is written as frames of one type.
+     */
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream frames;
+        private final char type;
+
+        FrameOutputStream(DataOutputStream frames, char type) {
+            this.frames = frames;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return;
+            // Standard output and standard error share the connection.
+            synchronized (frames) {
+                frames.writeByte(type);
+                frames.writeInt(length);
+                frames.write(bytes, offset, length);
+                frames.flush();
+            }
+        }
+    }
+
+    /*
+     * Reads the payloads of the 'I' frames up to the 'Z' frame.
+     */
+    private static final class FrameInputStream extends InputStream {
+        private final DataInputStream frames;
+        private int remaining = 0;
+        private boolean done = false;
+
+        FrameInputStream(DataInputStream frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            while (remaining == 0) {
+                if (done) return -1;
+                int type;
+                try {
+                    type = frames.readByte();
+                } catch (EOFException closed) {
+                    done = true;
+                    return -1;
+                }
+                int size = frames.readInt();
+                if (type == 'Z') {
+                    done = true;
+                } else if (type == 'I') {
+                    remaining = size;
+                } else {
+                    throw new IOException("Unexpected frame " + type + " in standard input.");
+                }
+            }
+            int read = frames.read(bytes, offset, Math.min(length, remaining));
+            if (read == -1) throw new EOFException("Standard input ended inside a frame.");
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -1,37 +1,99 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/*
+ * The global environment keeps its variables by name so the REPL can add
+ * them one line at a time. Every other environment is a frame for one block
+ * or one function call: a fixed array of the locals the Resolver found in
+ * it, addressed by slot.
+ *
+ * Call frames enclose nothing, a function reaches the variables around it
+ * through the Cells its closure captured. Nothing keeps a frame once the
+ * call returns, so they come from a FramePool and go back to it.
+ */
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
+    private final Object[] slots;
 
     Environment() {
-        enclosing = null;
+        this(new HashMap<>(), null);
     }
 
-    Environment(Environment environment) {
+    /**
+     * A global environment that keeps its variables in the given map, and
+     * looks up the ones it doesn't have in the enclosing one.
+     *
+     * @param values where the variables live
+     * @param enclosing another global environment, or null
+     */
+    Environment(Map<String, Object> values, Environment enclosing) {
+        this.enclosing = enclosing;
+        this.values = values;
+        this.slots = null;
+    }
+
+    Environment(Environment environment, int size) {
         this.enclosing = environment;
+        this.values = null;
+        this.slots = new Object[size];
+    }
+
+    int size() {
+        return slots.length;
+    }
+
+    /**
+     * Drops the values of a frame, so a pooled frame keeps nothing alive.
+     */
+    void clear() {
+        Arrays.fill(slots, null);
     }
+
     void define(String name, Object value) {
         this.values.put(name, value);
     }
 
+    void define(int slot, Object value) {
+        this.slots[slot] = value;
+    }
+
     Object get(Token token) {
-        if (values.containsKey(token.lexeme)) {
-            return this.values.get(token.lexeme);
+        if (values != null && values.containsKey(token.lexeme())) {
+            return this.values.get(token.lexeme());
         }
 
         if (this.enclosing != null) {
             return this.enclosing.get(token);
         }
-        throw new RuntimeError(token, "Undefined variable '" + token.lexeme + "'");
+        throw new RuntimeError(token, "Undefined variable '" + token.lexeme() + "'");
+    }
+
+    /**
+     * Looks a global up without failing.
+     *
+     * @param missing what to return when there is no such variable
+     */
+    Object lookup(String name, Object missing) {
+        if (values != null && values.containsKey(name)) {
+            return values.get(name);
+        }
+        if (enclosing != null) {
+            return enclosing.lookup(name, missing);
+        }
+        return missing;
+    }
+
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).slots[slot];
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            this.values.put(name.lexeme, value);
+        if (values != null && values.containsKey(name.lexeme())) {
+            this.values.put(name.lexeme(), value);
             return;
         }
 
@@ -39,6 +101,18 @@ public class Environment {
             this.enclosing.assign(name, value);
             return;
         }
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
+    }
+
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    private Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
 }
@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/*
+ * Where the errors of one Context go. The Scanner, Parser, Resolver,
+ * compilers and Interpreter report through it, and it remembers whether
+ * anything went wrong, so programs running side by side don't see each
+ * other's errors.
+ */
+class ErrorReporter {
+    private final PrintStream err;
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    /**
+     * Whether one of the errors happened while running, as opposed to
+     * scanning, parsing, resolving or compiling.
+     */
+    boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    /**
+     * Forgets earlier errors, for running something new in the same Context.
+     */
+    void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+
+    void error(int line, String message) {
+        error(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            error(token.line, " at end", message);
+        } else {
+            error(token.line, " at '" + token.lexeme() + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error) {
+        runtimeError(error.getMessage(), error.token.line);
+    }
+
+    void runtimeError(String message, int line) {
+        hadError = true;
+        hadRuntimeError = true;
+        LoxEvents.RunError event = new LoxEvents.RunError();
+        if (event.shouldCommit()) {
+            event.line = line;
+            event.message = message;
+            event.commit();
+        }
+        Metrics.runtimeError(message);
+        report(line, message + "\n[livane " + line + "]");
+    }
+
+    private void error(int line, String where, String message) {
+        hadError = true;
+        LoxEvents.CompileError event = new LoxEvents.CompileError();
+        if (event.shouldCommit()) {
+            event.line = line;
+            event.message = message;
+            event.commit();
+        }
+        report(line, "[line " + line + "] Error" + where + ": " + message);
+    }
+
+    /**
+     * Shows one error. Prints it by default, override to put it elsewhere.
+     *
+     * @param line where the error is
+     * @param text the error as the command line prints it
+     */
+    void report(int line, String text) {
+        err.println(text);
+    }
+}
@@ -18,6 +18,8 @@ abstract class Expr {
     R visitVariableExpr(Variable expr);
   }
 
+  boolean numeric = false;
+
  static class Assign extends Expr {
     Assign(Token name, Expr value) {
       this.name = name;
@@ -31,6 +33,10 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
+    int upvalue = -1;
+    boolean cell = false;
   }
  static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -47,6 +53,7 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    Specialization specialization = Specialization.UNINITIALIZED;
   }
  static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -63,6 +70,7 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    InvokeCache cache = InvokeCache.EMPTY;
   }
  static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -77,6 +85,7 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    PropertyCache cache = PropertyCache.EMPTY;
   }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -119,8 +128,8 @@ abstract class Expr {
     final Expr right;
   }
  static class Set extends Expr {
-    Set(Expr Object, Token name, Expr value) {
-      this.Object = Object;
+    Set(Expr object, Token name, Expr value) {
+      this.object = object;
       this.name = name;
       this.value = value;
     }
@@ -130,9 +139,10 @@ abstract class Expr {
        return visitor.visitSetExpr(this);
     }
 
-    final Expr Object;
+    final Expr object;
     final Token name;
     final Expr value;
+    PropertyCache cache = PropertyCache.EMPTY;
   }
  static class Supper extends Expr {
     Supper(Token keyword, Token method) {
@@ -147,6 +157,11 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int superclass = -1;
+    int depth = -1;
+    int slot = -1;
+    int upvalue = -1;
+    boolean cell = false;
   }
  static class This extends Expr {
     This(Token keyword) {
@@ -159,6 +174,10 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
+    int slot = -1;
+    int upvalue = -1;
+    boolean cell = false;
   }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -173,6 +192,7 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+    Specialization specialization = Specialization.UNINITIALIZED;
   }
  static class Variable extends Expr {
     Variable(Token name) {
@@ -185,6 +205,10 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
+    int upvalue = -1;
+    boolean cell = false;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
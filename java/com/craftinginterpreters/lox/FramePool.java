@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * The call frames an Interpreter is not using, kept to be used again so a
+ * call allocates nothing once the pool is warm.
+ *
+ * Frames are kept by size, as stacks: a call takes the frame the last
+ * returning call of the same size gave back, so recursion to depth n
+ * allocates n frames the first time down and none after that. Frames of
+ * more than MAX_SIZE slots and frames beyond MAX_FREE of a size are left
+ * to the garbage collector.
+ *
+ * A pool belongs to one Interpreter and is not thread-safe.
+ */
+final class FramePool {
+    static final int MAX_SIZE = 32;
+    static final int MAX_FREE = 256;
+
+    // Free frames by size, each a stack of counts[size] frames.
+    private final Environment[][] free = new Environment[MAX_SIZE + 1][];
+    private final int[] counts = new int[MAX_SIZE + 1];
+
+    /**
+     * A call frame with every slot nil.
+     *
+     * @param size slots
+     */
+    Environment take(int size) {
+        if (size <= MAX_SIZE && counts[size] > 0) {
+            Environment frame = free[size][--counts[size]];
+            free[size][counts[size]] = null;
+            return frame;
+        }
+        return new Environment(null, size);
+    }
+
+    /**
+     * Takes back a frame nothing refers to any more.
+     */
+    void give(Environment frame) {
+        int size = frame.size();
+        if (size > MAX_SIZE || counts[size] == MAX_FREE) return;
+        frame.clear();
+        Environment[] stack = free[size];
+        if (stack == null) {
+            stack = free[size] = new Environment[8];
+        } else if (counts[size] == stack.length) {
+            stack = free[size] = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[counts[size]++] = frame;
+    }
+}
@@ -13,37 +13,119 @@ import com.craftinginterpreters.lox.Expr.This;
 import com.craftinginterpreters.lox.Expr.Unary;
 import com.craftinginterpreters.lox.Expr.Variable;
 
+import java.io.PrintWriter;
 import java.util.List;
 
+import com.craftinginterpreters.runtime.LoxRuntime;
+import com.craftinginterpreters.runtime.ScriptError;
+
+/*
+ * Statements evaluate to null, except for a return, which evaluates to
+ * RETURN with the value it returns in returnValue. Blocks, ifs and loops
+ * stop at a statement that evaluated to RETURN and evaluate to RETURN
+ * themselves, until the call takes the value. A return costs two stores
+ * that way, where an exception would cost a throw through every statement
+ * in between.
+ *
+ * Property accesses go through the PropertyCache of their node, keyed by
+ * the Shape of the instance, and only look a name up on a miss. A call of
+ * a property goes through the InvokeCache of the call instead, and calls
+ * the method with the instance as its receiver, without binding it. Past
+ * the polymorphism the InvokeCache takes, it uses the MethodCache.
+ */
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
+    private static final Object RETURN = new Object();
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+
+    final Environment globals;
+    private Environment environment;
+    // The captured variables of the function running, by upvalue index.
+    private Cell[] upvalues = NO_UPVALUES;
+    // The value of the return in flight.
+    private Object returnValue = null;
+    // Call frames to use again.
+    private final FramePool frames = new FramePool();
+    // Methods for megamorphic call sites, and the counts of all of them.
+    private final MethodCache methods = new MethodCache();
+    private final ErrorReporter reporter;
+    // Where print statements go.
+    private final PrintWriter out;
+    // Compiles hot blocks and loops, null when running interpreted only.
+    private Jit jit = null;
+    // Told about every statement when profiling, null otherwise.
+    private Profiler profiler = null;
+    // Told about every allocation when tracking them, null otherwise.
+    private AllocationProfiler allocations = null;
+    // Counts statements, environments and lookups for the Metrics, null
+    // when they are off.
+    private Metrics.Counts counts = null;
+
+    /**
+     * Turns on compiling hot blocks and loops to JVM code.
+     *
+     * @param threshold block entries or loop iterations that make code hot
+     */
+    void enableJit(int threshold) {
+        jit = new Jit(globals, out, threshold);
+    }
+
+    void enableProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    void enableAllocationProfiler(AllocationProfiler allocations) {
+        this.allocations = allocations;
+    }
+
+    void enableMetrics(Metrics.Counts counts) {
+        this.counts = counts;
+    }
+
+    Interpreter(ErrorReporter reporter, PrintWriter out) {
+        this(reporter, out, new Environment());
+    }
 
-    private Environment environment = new Environment();
+    Interpreter(ErrorReporter reporter, PrintWriter out, Environment globals) {
+        this.reporter = reporter;
+        this.out = out;
+        this.globals = globals;
+        this.environment = globals;
+    }
 
-    void interpret(List<Stmt> statements) {
+    /**
+     * Runs the statements, reporting the first runtime error.
+     *
+     * @param statements resolved statements
+     * @return the value of the last statement if it is an expression
+     *         statement, null otherwise
+     */
+    Object interpret(List<Stmt> statements) {
+        Object value = null;
         try {
             for (Stmt statement : statements) {
-                evaluate(statement);
+                value = evaluate(statement);
+                if (!(statement instanceof Stmt.Expression)) value = null;
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
+        } catch (ScriptError error) {
+            reporter.runtimeError(error.getMessage(), error.line);
+        } finally {
+            methods.flush();
         }
+        return value;
     }
 
-    private String stringify(Object object) {
-        if (object == null) {
-            return "nil";
-        }
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length()-2);
-            }
-            return text;
-        }
-        return object.toString();
-    }
     private Object evaluate(Stmt statement) {
-        return statement.accept(this);
+        if (counts != null) counts.statements++;
+        if (profiler == null) return statement.accept(this);
+
+        profiler.enter(statement.line);
+        try {
+            return statement.accept(this);
+        } finally {
+            profiler.exit();
+        }
     }
 
     private Object evaluate(Expr expression) {
@@ -53,44 +135,120 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     @Override
     public Object visitAssignExpr(Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if (expr.upvalue >= 0) {
+            upvalues[expr.upvalue].value = value;
+        } else if (expr.depth < 0) {
+            globals.assign(expr.name, value);
+        } else if (expr.cell) {
+            ((Cell) environment.getAt(expr.depth, expr.slot)).value = value;
+        } else {
+            environment.assignAt(expr.depth, expr.slot, value);
+        }
         return value;
     }
 
     @Override
     public Object visitBinaryExpr(Binary expr) {
+        if (expr.numeric) {
+            return number(expr.operator, evaluateDouble(expr));
+        }
+
+        switch (expr.specialization) {
+            case GREATER_NUMBER:
+                return leftNumber(expr) > rightNumber(expr);
+            case GREATER_EQUAL_NUMBER:
+                return leftNumber(expr) >= rightNumber(expr);
+            case LESS_NUMBER:
+                return leftNumber(expr) < rightNumber(expr);
+            case LESS_EQUAL_NUMBER:
+                return leftNumber(expr) <= rightNumber(expr);
+            default:
+                break;
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        switch (expr.specialization) {
+            case ADD_NUMBER:
+                if (left instanceof Double && right instanceof Double) {
+                    return number(expr.operator, (double) left + (double) right);
+                }
+                break;
+            case ADD_STRING:
+                if (left instanceof String && right instanceof String) {
+                    return concatenate(expr.operator, (String) left, (String) right);
+                }
+                break;
+            case EQUAL_NUMBER:
+                if (left instanceof Double && right instanceof Double) {
+                    return sameNumber((double) left, (double) right);
+                }
+                break;
+            case NOT_EQUAL_NUMBER:
+                if (left instanceof Double && right instanceof Double) {
+                    return !sameNumber((double) left, (double) right);
+                }
+                break;
+            case UNINITIALIZED:
+                expr.specialization = specialize(expr.operator.type, left, right);
+                return binaryGeneric(expr, left, right);
+            default:
+                return binaryGeneric(expr, left, right);
+        }
+
+        // The operand types changed under a specialized node, deoptimize.
+        expr.specialization = Specialization.GENERIC;
+        return binaryGeneric(expr, left, right);
+    }
+
+    private static Specialization specialize(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case GREATER: return Specialization.GREATER_NUMBER;
+            case GREATER_EQUAL: return Specialization.GREATER_EQUAL_NUMBER;
+            case LESS: return Specialization.LESS_NUMBER;
+            case LESS_EQUAL: return Specialization.LESS_EQUAL_NUMBER;
+            default: break;
+        }
+
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return Specialization.ADD_NUMBER;
+                case EQUAL_EQUAL: return Specialization.EQUAL_NUMBER;
+                case BANG_EQUAL: return Specialization.NOT_EQUAL_NUMBER;
+                default: break;
+            }
+        } else if (left instanceof String && right instanceof String && operator == TokenType.PLUS) {
+            return Specialization.ADD_STRING;
+        }
+        return Specialization.GENERIC;
+    }
+
+    private static boolean sameNumber(double a, double b) {
+        return LoxRuntime.sameNumber(a, b);
+    }
+
+    private Object binaryGeneric(Binary expr, Object left, Object right) {
         switch (expr.operator.type) {
-            case MINUS:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left - (double) right;
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+                    return number(expr.operator, (double) left + (double) right);
                 }
                 if (left instanceof String && right instanceof String) {
-                    return left + (String) right;
+                    return concatenate(expr.operator, (String) left, (String) right);
                 }
                 break;
-            case SLASH:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperand(expr.operator, left, right);
-                return (double) left * (double) right;
             case GREATER:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left > (double) right;
+                return (double) left > (double) right;
             case GREATER_EQUAL:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left >= (double) right;
+                return (double) left >= (double) right;
             case LESS:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left < (double) right;
+                return (double) left < (double) right;
             case LESS_EQUAL:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left <= (double) right;
+                return (double) left <= (double) right;
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case BANG_EQUAL:
@@ -101,16 +259,248 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return null;
     }
 
+    /**
+     * Boxes the result of arithmetic.
+     */
+    private Object number(Token operator, double value) {
+        if (allocations != null) allocations.number(operator.line);
+        return value;
+    }
+
+    private Object concatenate(Token operator, String left, String right) {
+        String value = left + right;
+        if (allocations != null) allocations.string(operator.line, value);
+        return value;
+    }
+
+    /**
+     * Evaluates an expression the Resolver marked numeric as a primitive
+     * double, so the intermediate results of an arithmetic expression are
+     * never boxed. Operands that are not number-typed, such as variables,
+     * are evaluated boxed and checked.
+     *
+     * @param expr a numeric Expr
+     * @return double
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            double left = leftNumber(binary);
+            double right = rightNumber(binary);
+            switch (binary.operator.type) {
+                case MINUS: return left - right;
+                case PLUS: return left + right;
+                case SLASH: return left / right;
+                case STAR: return left * right;
+                default: break;
+            }
+        } else if (expr instanceof Unary) {
+            Unary unary = (Unary) expr;
+            if (unary.right.numeric) {
+                return -evaluateDouble(unary.right);
+            }
+            Object right = evaluate(unary.right);
+            checkNumberOperand(unary.operator, right);
+            return -(double) right;
+        } else if (expr instanceof Literal) {
+            return (double) ((Literal) expr).value;
+        } else if (expr instanceof Grouping) {
+            return evaluateDouble(((Grouping) expr).expression);
+        }
+        throw new IllegalStateException("Not a numeric expression.");
+    }
+
+    private double leftNumber(Binary expr) {
+        if (expr.left.numeric) {
+            return evaluateDouble(expr.left);
+        }
+        Object left = evaluate(expr.left);
+        if (left instanceof Double) {
+            return (double) left;
+        }
+        // The right operand still runs before the error is reported.
+        evaluate(expr.right);
+        throw new RuntimeError(expr.operator, "Operand must be number");
+    }
+
+    private double rightNumber(Binary expr) {
+        if (expr.right.numeric) {
+            return evaluateDouble(expr.right);
+        }
+        Object right = evaluate(expr.right);
+        if (right instanceof Double) {
+            return (double) right;
+        }
+        throw new RuntimeError(expr.operator, "Operand must be number");
+    }
+
     @Override
     public Object visitCallExpr(Call expr) {
-        // TODO Auto-generated method stub
-        return null;
+        if (expr.callee instanceof Get) return invoke(expr, (Get) expr.callee);
+        if (expr.callee instanceof Supper) return invokeSuper(expr, (Supper) expr.callee);
+        return call(expr, evaluate(expr.callee));
+    }
+
+    /**
+     * Calls `object.name(...)`, using the site's InvokeCache.
+     */
+    private Object invoke(Call expr, Get get) {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        Shape shape = instance.shape;
+        InvokeCache cache = expr.cache;
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            methods.siteHits++;
+            int slot = cache.slot(entry);
+            if (slot >= 0) return call(expr, instance.fields[slot]);
+            return call(expr, instance.klass.method(cache.depth(entry), cache.index(entry)), instance);
+        }
+
+        methods.siteMisses++;
+        String name = get.name.lexeme();
+        int slot = shape.slot(name);
+        if (slot >= 0) {
+            if (cache != InvokeCache.MEGAMORPHIC) cache(expr, cache.add(shape, slot, -1, -1));
+            return call(expr, instance.fields[slot]);
+        }
+        if (cache == InvokeCache.MEGAMORPHIC) {
+            LoxFunction method = methods.find(instance.klass, name);
+            if (method == null) {
+                throw new RuntimeError(get.name, "Undefined property '" + name + "'.");
+            }
+            return call(expr, method, instance);
+        }
+
+        int depth = 0;
+        for (LoxClass klass = instance.klass; klass != null; klass = klass.superclass, depth++) {
+            int index = klass.declaredIndex(name);
+            if (index >= 0) {
+                cache(expr, cache.add(shape, -1, depth, index));
+                return call(expr, klass.method(0, index), instance);
+            }
+        }
+        throw new RuntimeError(get.name, "Undefined property '" + name + "'.");
+    }
+
+    private void cache(Call expr, InvokeCache cache) {
+        expr.cache = cache;
+        if (cache == InvokeCache.MEGAMORPHIC) methods.megamorphicSites++;
+    }
+
+    /**
+     * Calls `super.name(...)` without binding the method.
+     */
+    private Object invokeSuper(Call expr, Supper supper) {
+        LoxClass superclass = (LoxClass) upvalues[supper.superclass].value;
+        LoxInstance receiver = (LoxInstance) local(supper.depth, supper.slot, supper.upvalue, supper.cell);
+        LoxFunction method = superclass.findMethod(supper.method.lexeme());
+        if (method == null) {
+            throw new RuntimeError(supper.method, "Undefined property '" + supper.method.lexeme() + "'.");
+        }
+        return call(expr, method, receiver);
+    }
+
+    /**
+     * Calls a function or a class.
+     */
+    private Object call(Call expr, Object callee) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return call(expr, function, function.receiver);
+        }
+        if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass) callee;
+            LoxInstance instance = new LoxInstance(klass);
+            if (klass.initializer != null) {
+                call(expr, klass.initializer, instance);
+            } else {
+                checkArity(expr, 0);
+            }
+            return instance;
+        }
+        throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+    }
+
+    private static void checkArity(Call expr, int arity) {
+        if (expr.arguments.size() != arity) {
+            throw new RuntimeError(expr.paren, "Expected " + arity
+                    + " arguments but got " + expr.arguments.size() + ".");
+        }
+    }
+
+    /**
+     * Calls a function with the call's arguments.
+     *
+     * @param receiver the instance for a method, null for a function
+     */
+    private Object call(Call expr, LoxFunction function, LoxInstance receiver) {
+        List<Expr> arguments = expr.arguments;
+        checkArity(expr, function.arity());
+
+        // The arguments go straight into the parameter slots. The frame
+        // only becomes the environment once they are all evaluated.
+        Stmt.Function declaration = function.declaration;
+        Environment frame = frames.take(declaration.locals);
+        for (int i = 0; i < arguments.size(); i++) {
+            frame.define(i, evaluate(arguments.get(i)));
+        }
+        if (receiver != null) frame.define(arguments.size(), receiver);
+        for (int param : declaration.cellParams) {
+            frame.define(param, new Cell(frame.getAt(0, param)));
+        }
+        try {
+            return call(function, receiver, frame);
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+    }
+
+    private Object call(LoxFunction function, LoxInstance receiver, Environment frame) {
+        Environment previous = environment;
+        Cell[] previousUpvalues = upvalues;
+        environment = frame;
+        upvalues = function.upvalues;
+        try {
+            List<Stmt> body = function.declaration.body;
+            for (int i = 0; i < body.size(); i++) {
+                if (evaluate(body.get(i)) == RETURN) {
+                    Object value = returnValue;
+                    returnValue = null;
+                    return function.initializer ? receiver : value;
+                }
+            }
+            return function.initializer ? receiver : null;
+        } finally {
+            environment = previous;
+            upvalues = previousUpvalues;
+            frames.give(frame);
+        }
     }
 
     @Override
     public Object visitGetExpr(Get expr) {
-        // TODO Auto-generated method stub
-        return null;
+        Object object = evaluate(expr.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(expr.name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        PropertyCache cache = expr.cache;
+        int entry = cache.find(instance.shape);
+        if (entry >= 0) return instance.fields[cache.slot(entry)];
+
+        String name = expr.name.lexeme();
+        int slot = instance.shape.slot(name);
+        if (slot >= 0) {
+            expr.cache = cache.add(instance.shape, slot, null);
+            return instance.fields[slot];
+        }
+        LoxFunction method = instance.klass.findMethod(name);
+        if (method != null) return method.bind(instance);
+        throw new RuntimeError(expr.name, "Undefined property '" + name + "'.");
     }
 
     @Override
@@ -131,52 +521,99 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitSetExpr(Set expr) {
-        // TODO Auto-generated method stub
-        return null;
+        Object object = evaluate(expr.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(expr.name, "Only instances have fields.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+        Object value = evaluate(expr.value);
+        Shape shape = instance.shape;
+        PropertyCache cache = expr.cache;
+        int entry = cache.find(shape);
+        if (entry >= 0) {
+            Shape next = cache.next(entry);
+            if (next == null) {
+                instance.fields[cache.slot(entry)] = value;
+            } else {
+                instance.add(next, cache.slot(entry), value);
+            }
+            return value;
+        }
+
+        int slot = shape.slot(expr.name.lexeme());
+        if (slot >= 0) {
+            expr.cache = cache.add(shape, slot, null);
+            instance.fields[slot] = value;
+        } else {
+            Shape next = shape.with(expr.name.lexeme());
+            slot = shape.size();
+            expr.cache = cache.add(shape, slot, next);
+            instance.add(next, slot, value);
+        }
+        return value;
     }
 
     @Override
     public Object visitSupperExpr(Supper expr) {
-        // TODO Auto-generated method stub
-        return null;
+        LoxClass superclass = (LoxClass) upvalues[expr.superclass].value;
+        LoxInstance receiver = (LoxInstance) local(expr.depth, expr.slot, expr.upvalue, expr.cell);
+        LoxFunction method = superclass.findMethod(expr.method.lexeme());
+        if (method == null) {
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme() + "'.");
+        }
+        return method.bind(receiver);
     }
 
     @Override
     public Object visitThisExpr(This expr) {
-        // TODO Auto-generated method stub
-        return null;
+        return local(expr.depth, expr.slot, expr.upvalue, expr.cell);
+    }
+
+    /**
+     * Reads a local the Resolver gave an address.
+     */
+    private Object local(int depth, int slot, int upvalue, boolean cell) {
+        if (upvalue >= 0) return upvalues[upvalue].value;
+        Object value = environment.getAt(depth, slot);
+        return cell ? ((Cell) value).value : value;
     }
 
     @Override
     public Object visitUnaryExpr(Unary expr) {
         Token operator = expr.operator;
         if (operator != null) {
+            if (operator.type == TokenType.MINUS) {
+                return number(operator, evaluateDouble(expr));
+            }
             Object right = evaluate(expr.right);
-            switch (operator.type) {
-                case MINUS:
-                    checkNumberOperand(operator, right);
-                    return -(double)right;
-                case BANG:
-                    return !isTruthy(right);
+            if (operator.type != TokenType.BANG) {
+                return null;
+            }
+            switch (expr.specialization) {
+                case NOT_BOOLEAN:
+                    if (right instanceof Boolean) {
+                        return !(Boolean) right;
+                    }
+                    expr.specialization = Specialization.GENERIC;
+                    break;
+                case UNINITIALIZED:
+                    expr.specialization = right instanceof Boolean
+                            ? Specialization.NOT_BOOLEAN : Specialization.GENERIC;
+                    break;
+                default:
+                    break;
             }
+            return !isTruthy(right);
         }
         return null;
     }
 
-    private boolean isTruthy(Object object) {
-        if (object == null) {
-            return false;
-        }
-        if (object instanceof Boolean) return (Boolean)object;
-        return true;
+    static boolean isTruthy(Object object) {
+        return LoxRuntime.isTruthy(object);
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) {
-            return true;
-        }
-        if (a == null) return false;
-        return a.equals(b);
+    static boolean isEqual(Object a, Object b) {
+        return LoxRuntime.isEqual(a, b);
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -184,14 +621,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         throw new RuntimeError(operator, "Operand must be number.");
     }
 
-    private boolean checkNumberOperand(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return true;
+    private void checkNumberOperand(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be number");
     }
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return environment.get(expr.name);
+        if (expr.upvalue >= 0) {
+            return upvalues[expr.upvalue].value;
+        }
+        if (expr.depth < 0) {
+            if (counts != null) counts.globalLookups++;
+            return globals.get(expr.name);
+        }
+        if (counts != null) counts.lookup(expr.depth);
+        Object value = environment.getAt(expr.depth, expr.slot);
+        return expr.cell ? ((Cell) value).value : value;
     }
 
     @Override
@@ -202,7 +648,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     @Override
     public Object visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(LoxRuntime.stringify(value));
         return null;
     }
 
@@ -212,14 +658,35 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.lexeme(), value);
+        } else {
+            environment.define(stmt.slot, stmt.cell ? new Cell(value) : value);
+        }
         return null;
     }
 
     @Override
     public Object visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt, new Environment(environment));
-        return null;
+        JitCode compiled = stmt.compiled;
+        if (compiled != null) {
+            if (compiled.run(environment, upvalues)) return null;
+            // A variable it keeps as a double held something else.
+            stmt.compiled = null;
+            if (jit != null) jit.deoptimized(stmt, compiled);
+        }
+        if (jit != null) jit.entered(stmt);
+
+        if (stmt.locals == 0) {
+            // Nothing is declared here, so the enclosing frame will do.
+            for (Stmt statement : stmt.statements) {
+                if (evaluate(statement) == RETURN) return RETURN;
+            }
+            return null;
+        }
+        if (allocations != null) allocations.environment(stmt.line, stmt.locals);
+        if (counts != null) counts.environments++;
+        return executeBlock(stmt, new Environment(environment, stmt.locals));
     }
 
     @Override
@@ -232,14 +699,126 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return null;
     }
 
-    private void executeBlock(Stmt.Block stmt, Environment environment) {
+    @Override
+    public Object visitWhileStmt(Stmt.While stmt) {
+        JitCode compiled = stmt.compiled;
+        if (compiled != null) {
+            if (compiled.run(environment, upvalues)) return null;
+            stmt.compiled = null;
+            if (jit != null) jit.deoptimized(stmt, compiled);
+        }
+
+        while (isTruthy(evaluate(stmt.condition))) {
+            if (evaluate(stmt.body) == RETURN) return RETURN;
+            if (jit != null) {
+                jit.backEdge(stmt);
+                // At the back edge the loop has nothing in flight but its
+                // environment, so compiled code can take over from the
+                // condition without waiting for the next time round.
+                compiled = stmt.compiled;
+                if (compiled != null) {
+                    if (compiled.run(environment, upvalues)) return null;
+                    stmt.compiled = null;
+                    jit.deoptimized(stmt, compiled);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitFunctionStmt(Stmt.Function stmt) {
+        // A function that captures itself finds its Cell in place.
+        if (stmt.cell) environment.define(stmt.slot, new Cell(null));
+        LoxFunction function = new LoxFunction(stmt, capture(stmt));
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.lexeme(), function);
+        } else if (stmt.cell) {
+            ((Cell) environment.getAt(0, stmt.slot)).value = function;
+        } else {
+            environment.define(stmt.slot, function);
+        }
+        return null;
+    }
+
+    /**
+     * Collects the Cells a function being declared captures, from the
+     * frames around the declaration and the upvalues of the function
+     * running.
+     */
+    private Cell[] capture(Stmt.Function stmt) {
+        int[] depths = stmt.captureDepths;
+        if (depths.length == 0) return NO_UPVALUES;
+        Cell[] cells = new Cell[depths.length];
+        for (int i = 0; i < depths.length; i++) {
+            int slot = stmt.captureSlots[i];
+            cells[i] = depths[i] < 0 ? upvalues[slot] : (Cell) environment.getAt(depths[i], slot);
+        }
+        return cells;
+    }
+
+    @Override
+    public Object visitClassStmt(Stmt.Class stmt) {
+        LoxClass superclass = null;
+        if (stmt.superclass != null) {
+            Object value = evaluate(stmt.superclass);
+            if (!(value instanceof LoxClass)) {
+                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+        }
+        // Methods that use the class find its Cell in place.
+        if (stmt.cell) environment.define(stmt.slot, new Cell(null));
+
+        Environment previous = environment;
+        if (superclass != null) {
+            // The scope of `super`, which only methods capture.
+            environment = new Environment(environment, 1);
+            environment.define(0, new Cell(superclass));
+        }
+        LoxFunction[] methods = new LoxFunction[stmt.methods.size()];
+        try {
+            for (int i = 0; i < methods.length; i++) {
+                Stmt.Function method = stmt.methods.get(i);
+                boolean initializer = method.name.lexeme().equals("init");
+                methods[i] = new LoxFunction(method, capture(method), null, initializer);
+            }
+        } finally {
+            environment = previous;
+        }
+
+        Shape shape = superclass == null ? stmt.shape : superclass.shape.subclass(stmt);
+        LoxClass klass = new LoxClass(stmt.name.lexeme(), superclass, methods, shape);
+        if (stmt.slot < 0) {
+            globals.define(stmt.name.lexeme(), klass);
+        } else if (stmt.cell) {
+            ((Cell) environment.getAt(0, stmt.slot)).value = klass;
+        } else {
+            environment.define(stmt.slot, klass);
+        }
+        return null;
+    }
+
+    @Override
+    public Object visitReturnStmt(Stmt.Return stmt) {
+        returnValue = stmt.value != null ? evaluate(stmt.value) : null;
+        return RETURN;
+    }
+
+    /**
+     * Runs a block's statements in the given frame.
+     *
+     * @return RETURN if a return ran, null otherwise
+     */
+    private Object executeBlock(Stmt.Block stmt, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : stmt.statements) {
-                evaluate(statement);
+                if (evaluate(statement) == RETURN) return RETURN;
             }
+            return null;
         } finally {
             this.environment = previous;
         }
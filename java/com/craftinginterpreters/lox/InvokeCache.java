@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * The inline cache of a call whose callee is a property, `a.b(...)`: for
+ * each Shape of `a` the site has seen, up to LIMIT of them, where the
+ * method `b` is, or the slot of the field `b` when a field shadows the
+ * method. A site that sees more than LIMIT Shapes is megamorphic and
+ * asks the Interpreter's MethodCache instead.
+ *
+ * Keying on the Shape rather than the class gives both answers with one
+ * comparison. A Shape stands for the declarations of the class and its
+ * superclasses, and it also tells whether the instance has a field of
+ * that name. A method is kept by where it is, how many superclasses up
+ * and its index in that class's declaration, which is the same for every
+ * class made from those declarations. So the classes of other runs, or
+ * of a declaration run again, hit the same entries, and a cache keeps no
+ * closures alive.
+ *
+ * Like a PropertyCache, a cache never changes and a miss stores a new one
+ * in the node, so runs on other threads can share it.
+ */
+final class InvokeCache {
+    // Shapes a site caches before it is megamorphic.
+    static final int LIMIT = 4;
+
+    static final InvokeCache EMPTY = new InvokeCache(new Shape[0], new int[0], new int[0], new int[0]);
+    static final InvokeCache MEGAMORPHIC = new InvokeCache(new Shape[0], new int[0], new int[0], new int[0]);
+
+    private final Shape[] shapes;
+    // The field's slot, -1 for a method.
+    private final int[] slots;
+    // For a method, the superclasses up and the index in the declaration.
+    private final int[] depths;
+    private final int[] indexes;
+
+    private InvokeCache(Shape[] shapes, int[] slots, int[] depths, int[] indexes) {
+        this.shapes = shapes;
+        this.slots = slots;
+        this.depths = depths;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Returns the entry for a Shape, or -1 on a miss.
+     */
+    int find(Shape shape) {
+        for (int i = 0; i < shapes.length; i++) {
+            if (shapes[i] == shape) return i;
+        }
+        return -1;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    int depth(int entry) {
+        return depths[entry];
+    }
+
+    int index(int entry) {
+        return indexes[entry];
+    }
+
+    /**
+     * Returns the cache with one more entry, or MEGAMORPHIC when this one
+     * is full.
+     *
+     * @param slot the field's slot, -1 for a method
+     * @param depth for a method, how many superclasses up it is
+     * @param index for a method, its index in that class's declaration
+     */
+    InvokeCache add(Shape shape, int slot, int depth, int index) {
+        if (this == MEGAMORPHIC || shapes.length == LIMIT) return MEGAMORPHIC;
+        int size = shapes.length;
+        Shape[] nextShapes = Arrays.copyOf(shapes, size + 1);
+        int[] nextSlots = Arrays.copyOf(slots, size + 1);
+        int[] nextDepths = Arrays.copyOf(depths, size + 1);
+        int[] nextIndexes = Arrays.copyOf(indexes, size + 1);
+        nextShapes[size] = shape;
+        nextSlots[size] = slot;
+        nextDepths[size] = depth;
+        nextIndexes[size] = index;
+        return new InvokeCache(nextShapes, nextSlots, nextDepths, nextIndexes);
+    }
+}
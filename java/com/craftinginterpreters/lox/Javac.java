@@ -0,0 +1,107 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/*
+ * Runs the JDK's Java compiler in memory, from a source string to the bytes
+ * of the class files, without touching the disk.
+ *
+ * The classes being compiled see everything on this process's class path,
+ * which is how generated code finds the runtime package.
+ */
+class Javac {
+    private Javac() {}
+
+    /**
+     * Whether there is a compiler to run. A JRE without the jdk.compiler
+     * module has none.
+     */
+    static boolean available() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Compiles one source file.
+     *
+     * @param className binary name of the top level class in the source
+     * @param source Java source
+     * @return class file bytes by binary class name, nested classes included
+     * @throws IllegalStateException if the source does not compile, which
+     *         means the code generator has a bug
+     */
+    static Map<String, byte[]> compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> outputs = new LinkedHashMap<>();
+        // The file manager holds the class path open, so it goes as soon as
+        // javac is done.
+        try (StandardJavaFileManager standard =
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+
+            JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String name,
+                        JavaFileObject.Kind kind, FileObject sibling) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    outputs.put(name, out);
+                    URI uri = URI.create("memory:///" + name.replace('.', '/') + kind.extension);
+                    return new SimpleJavaFileObject(uri, kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return out;
+                        }
+                    };
+                }
+            };
+
+            URI uri = URI.create("memory:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+            JavaFileObject file = new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+
+            List<String> options = Arrays.asList(
+                    "-classpath", System.getProperty("java.class.path"), "-proc:none");
+            boolean compiled = compiler.getTask(null, manager, diagnostics, options, null,
+                    Collections.singletonList(file)).call();
+            if (!compiled) {
+                StringBuilder message = new StringBuilder("Generated code for " + className + " does not compile:");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    message.append("\n").append(diagnostic);
+                }
+                throw new IllegalStateException(message.toString());
+            }
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> output : outputs.entrySet()) {
+            classes.put(output.getKey(), output.getValue().toByteArray());
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,141 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * The second tier of the Interpreter. Every block counts how often it is
+ * entered and every loop how often it jumps back. When a count reaches the
+ * threshold, the statement is queued for compilation by JitCompiler on a
+ * background thread, so the program keeps running interpreted meanwhile.
+ *
+ * The compiled class is defined as a hidden class next to JitCode, which
+ * lets it use the package's classes and lets it be unloaded along with the
+ * tree. It is published in the statement's `compiled` field, which the
+ * Interpreter checks every time it enters the statement.
+ *
+ * A loop switches to compiled code at the first back edge after it is
+ * published, in the middle of the loop, and from then on whenever it is
+ * entered. The block that is its body would get hot just as fast, so it
+ * is only compiled on its own when the loop can't be.
+ *
+ * When compiled code gives up because a variable it keeps as a double
+ * held something else, the Interpreter drops it and tells the Jit, which
+ * compiles the statement once more with that variable boxed. If that code
+ * gives up too, the statement stays interpreted.
+ *
+ * Compiling costs javac's time, about a second of CPU for the first
+ * statement in a process, on the same cores as the program. So the
+ * threshold should only let through code that will run well past that.
+ */
+class Jit {
+    private static final MethodType CONSTRUCTOR =
+            MethodType.methodType(void.class, Environment.class, PrintWriter.class, Token[].class);
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // One compiler thread for all Interpreters in the process.
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lox-jit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only touched by the compiler thread.
+    private static int classes = 0;
+
+    private final Environment globals;
+    private final PrintWriter out;
+    private final int threshold;
+
+    Jit(Environment globals, PrintWriter out, int threshold) {
+        this.globals = globals;
+        this.out = out;
+        this.threshold = threshold;
+    }
+
+    void entered(Stmt.Block block) {
+        // Counting stops at the threshold, so each statement is queued once.
+        if (block.hotness < threshold && ++block.hotness == threshold) {
+            compiler.execute(() -> block.compiled = compile(block, Set.of()));
+        }
+    }
+
+    void backEdge(Stmt.While loop) {
+        if (loop.hotness == 0 && loop.body instanceof Stmt.Block) {
+            ((Stmt.Block) loop.body).hotness = threshold;
+        }
+        if (loop.hotness < threshold && ++loop.hotness == threshold) {
+            compiler.execute(() -> compiled(loop, compile(loop, Set.of())));
+        }
+    }
+
+    /**
+     * Called by the Interpreter when a block's compiled code returned
+     * false, after it dropped the code.
+     */
+    void deoptimized(Stmt.Block block, JitCode code) {
+        Set<String> boxed = boxed(code);
+        if (boxed != null) compiler.execute(() -> block.compiled = compile(block, boxed));
+    }
+
+    void deoptimized(Stmt.While loop, JitCode code) {
+        Set<String> boxed = boxed(code);
+        if (boxed == null) {
+            compiled(loop, null);
+        } else {
+            compiler.execute(() -> compiled(loop, compile(loop, boxed)));
+        }
+    }
+
+    /**
+     * What to keep boxed compiling again after code gave up, null for not
+     * compiling again.
+     */
+    private static Set<String> boxed(JitCode code) {
+        String local = code.deoptimizedBy;
+        // Code compiled with anything boxed was compiled again already.
+        if (local == null || !code.boxed.isEmpty()) return null;
+        return Set.of(local);
+    }
+
+    private static void compiled(Stmt.While loop, JitCode code) {
+        loop.compiled = code;
+        if (code == null && loop.body instanceof Stmt.Block) {
+            // Let the body count again.
+            ((Stmt.Block) loop.body).hotness = 0;
+        }
+    }
+
+    /**
+     * Compiles a statement and loads it.
+     *
+     * @param boxed Java locals not to keep as doubles
+     * @return the compiled code, null if the statement can't be compiled
+     */
+    private JitCode compile(Stmt statement, Set<String> boxed) {
+        String className = "com.craftinginterpreters.lox.Jitted" + classes++;
+        JitCompiler jitCompiler = new JitCompiler(className, boxed);
+        try {
+            String source = jitCompiler.generate(statement);
+            Map<String, byte[]> classes = Javac.compile(className, source);
+            MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(classes.get(className), true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), CONSTRUCTOR);
+            JitCode code = (JitCode) constructor.invoke(globals, out, jitCompiler.tokens());
+            code.boxed = boxed;
+            return code;
+        } catch (JitCompiler.Unsupported unsupported) {
+            return null;
+        } catch (Throwable error) {
+            // A bug in code generation must not take the program down, it
+            // just keeps running interpreted.
+            out.flush();
+            System.err.println("[jit] Could not compile " + className + ": " + error);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.util.Set;
+
+import com.craftinginterpreters.runtime.LoxRuntime;
+
+/*
+ * A block or loop compiled by the Jit. JitCompiler generates a subclass
+ * whose run method does what the Interpreter would do for the statement,
+ * with the variables it uses loaded from the same environments and stored
+ * back to them.
+ */
+abstract class JitCode {
+    final Environment globals;
+    // Where print statements go.
+    final PrintWriter out;
+    // Names of the globals the code uses, for lookups and error messages.
+    final Token[] tokens;
+    // The Java locals JitCompiler was told to keep boxed, set by the Jit.
+    Set<String> boxed = Set.of();
+    // The Java local that made run return false.
+    volatile String deoptimizedBy = null;
+
+    JitCode(Environment globals, PrintWriter out, Token[] tokens) {
+        this.globals = globals;
+        this.out = out;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Runs the compiled statement.
+     *
+     * @param environment where the Interpreter would have run it
+     * @param upvalues the captured variables of the function running
+     * @return false, having done nothing, when a variable the code keeps
+     *         as a double doesn't hold a number
+     */
+    abstract boolean run(Environment environment, Cell[] upvalues);
+
+    /**
+     * Gives up on a run because a variable kept as a double doesn't hold a
+     * number.
+     *
+     * @param local the variable's Java local
+     * @return false, for run to return
+     */
+    final boolean deoptimize(String local) {
+        deoptimizedBy = local;
+        return false;
+    }
+
+    /**
+     * Reads a global, LoxRuntime.UNDEFINED if there is none yet.
+     */
+    final Object global(int token) {
+        return globals.lookup(tokens[token].lexeme(), LoxRuntime.UNDEFINED);
+    }
+}
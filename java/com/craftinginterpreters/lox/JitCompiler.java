@@ -0,0 +1,427 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+
+/*
+ * JitCompiler compiles one hot block or loop to a JitCode subclass. It
+ * generates the same code as JvmCompiler, except for variables:
+ *
+ * - Locals declared inside the compiled statement are Java locals, so its
+ *   blocks no longer allocate an Environment.
+ * - Globals and the locals declared outside it are loaded into Java locals
+ *   when the code starts and the ones it assigned are stored back when it
+ *   ends. The code makes no calls, so nothing else can see them meanwhile.
+ * - Locals a closure captured are read and written through their Cell, and
+ *   upvalues through the Cells of the function the statement runs in.
+ *
+ * Variables that only ever get numbers in the statement are Java doubles,
+ * so arithmetic on them needs no boxing and no OperatorSite. That takes a
+ * first pass over the statement, to see what each variable is assigned.
+ * One from outside that the statement only reads is a double when it is
+ * only used as an operand of arithmetic or comparisons, since then it had
+ * better hold a number anyway. The ones from outside have to hold numbers
+ * when the code starts. When one doesn't, run returns false and names it,
+ * and the Jit compiles the statement again with that variable boxed.
+ *
+ * Anything JvmCompiler can't compile throws Unsupported, and the statement
+ * stays interpreted.
+ */
+class JitCompiler extends JvmCompiler {
+    static class Unsupported extends RuntimeException {
+        Unsupported(String what) {
+            super(what);
+        }
+    }
+
+    /*
+     * A variable from outside the statement, held in a Java local named
+     * after it while the code runs.
+     */
+    private static final class Outer {
+        // Java expression reading it at the start.
+        final String load;
+        // Java statement storing the local back, if it was assigned.
+        final String store;
+        // A global that isn't a double may be LoxRuntime.UNDEFINED, when
+        // assigning it failed.
+        final boolean global;
+        boolean assigned = false;
+
+        Outer(String load, String store, boolean global) {
+            this.load = load;
+            this.store = store;
+            this.global = global;
+        }
+    }
+
+    private final List<Token> tokens = new ArrayList<>();
+    private final Map<String, Outer> outers = new LinkedHashMap<>();
+    // The variable each Variable and Assign names, by the name of its
+    // Java local, found by the first pass. Captured ones aren't in it.
+    private Map<Expr, String> uses = new IdentityHashMap<>();
+    // What the first pass saw assigned to each variable.
+    private final Map<String, List<Expr>> assigned = new HashMap<>();
+    // Variables that can't be numbers, whatever they are assigned.
+    private final Set<String> boxed;
+    // The variables the first pass saw read as numbers, by arithmetic or
+    // comparisons, and the ones it saw read as any value.
+    private final Set<String> numericUses = new HashSet<>();
+    private final Set<String> boxedUses = new HashSet<>();
+    // Variables held as Java doubles.
+    private Set<String> numbers = Set.of();
+
+    /**
+     * @param className of the JitCode subclass
+     * @param boxed Java locals to keep boxed, the ones that made code
+     *        compiled before give up
+     */
+    JitCompiler(String className, Set<String> boxed) {
+        // Nothing is reported, statements that don't compile stay interpreted.
+        super(className, null);
+        this.boxed = new HashSet<>(boxed);
+    }
+
+    /**
+     * Translates a statement to the Java source of a JitCode subclass.
+     *
+     * @param statement a resolved Block or While
+     * @return Java source
+     */
+    String generate(Stmt statement) {
+        JitCompiler analysis = new JitCompiler(className, boxed);
+        analysis.compile(statement);
+        analysis.scan(statement);
+        uses = analysis.uses;
+        numbers = analysis.numbers();
+        compile(statement);
+
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        StringBuilder source = new StringBuilder();
+        source.append("package com.craftinginterpreters.lox;\n\n");
+        source.append("import java.io.PrintWriter;\n");
+        source.append("import java.lang.invoke.MethodHandle;\n\n");
+        source.append("import com.craftinginterpreters.runtime.LoxRuntime;\n");
+        source.append("import com.craftinginterpreters.runtime.OperatorSite;\n\n");
+        source.append("final class ").append(simpleName).append(" extends JitCode {\n");
+        source.append(siteFields()).append("\n");
+        source.append("    ").append(simpleName)
+                .append("(Environment globals, PrintWriter out, Token[] tokens) {\n");
+        source.append("        super(globals, out, tokens);\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    boolean run(Environment environment, Cell[] upvalues) {\n");
+        source.append(prologue());
+        source.append("        try {\n");
+        source.append(TRY);
+        source.append(code);
+        source.append(CATCH);
+        source.append("        } finally {\n");
+        for (Map.Entry<String, Outer> entry : outers.entrySet()) {
+            String local = entry.getKey();
+            Outer outer = entry.getValue();
+            if (!outer.assigned) continue;
+            source.append("            ");
+            if (outer.global && !numbers.contains(local)) {
+                source.append("if (").append(local).append(" != LoxRuntime.UNDEFINED) ");
+            }
+            source.append(outer.store).append(";\n");
+        }
+        source.append("        }\n");
+        source.append("        return true;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Loads the variables from outside, and gives up when one the code
+     * keeps as a double holds something else.
+     */
+    private String prologue() {
+        StringBuilder prologue = new StringBuilder();
+        List<String> guards = new ArrayList<>();
+        for (Map.Entry<String, Outer> entry : outers.entrySet()) {
+            String local = entry.getKey();
+            if (numbers.contains(local)) {
+                prologue.append("        Object ").append(local).append("$ = ")
+                        .append(entry.getValue().load).append(";\n");
+                guards.add(local);
+            } else {
+                prologue.append("        Object ").append(local).append(" = ")
+                        .append(entry.getValue().load).append(";\n");
+            }
+        }
+        for (String local : guards) {
+            prologue.append("        if (!(").append(local).append("$ instanceof Double)) return deoptimize(\"")
+                    .append(local).append("\");\n");
+        }
+        for (String local : guards) {
+            prologue.append("        double ").append(local).append(" = (Double) ").append(local).append("$;\n");
+        }
+        return prologue.toString();
+    }
+
+    /**
+     * The variables every assignment gives a number, supposing the
+     * variables it reads are numbers too. Starts from all of them and the
+     * ones only read as numbers, and drops the ones that get something else
+     * until none is left to drop.
+     */
+    private Set<String> numbers() {
+        Set<String> numbers = new HashSet<>(assigned.keySet());
+        for (String local : numericUses) {
+            if (!boxedUses.contains(local)) numbers.add(local);
+        }
+        numbers.removeAll(boxed);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, List<Expr>> entry : assigned.entrySet()) {
+                if (!numbers.contains(entry.getKey())) continue;
+                for (Expr value : entry.getValue()) {
+                    if (!numeric(value, numbers)) {
+                        numbers.remove(entry.getKey());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Sorts the variables the statement reads by how it uses them. Only
+     * looks at what JvmCompiler compiles, since the first pass has thrown
+     * Unsupported for anything else.
+     */
+    private void scan(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) {
+            for (Stmt statement : ((Stmt.Block) stmt).statements) scan(statement);
+        } else if (stmt instanceof Stmt.Expression) {
+            scan(((Stmt.Expression) stmt).expression, null);
+        } else if (stmt instanceof Stmt.Print) {
+            scan(((Stmt.Print) stmt).expression, boxedUses);
+        } else if (stmt instanceof Stmt.Var) {
+            Expr initializer = ((Stmt.Var) stmt).initializer;
+            if (initializer != null) scan(initializer, null);
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            scan(ifStmt.condition, boxedUses);
+            scan(ifStmt.thenBranch);
+            if (ifStmt.elseBranch != null) scan(ifStmt.elseBranch);
+        } else if (stmt instanceof Stmt.While) {
+            scan(((Stmt.While) stmt).condition, boxedUses);
+            scan(((Stmt.While) stmt).body);
+        }
+    }
+
+    /**
+     * Adds the variables an expression reads to the uses they are in, none
+     * for a value that is assigned, which numbers() follows instead.
+     */
+    private void scan(Expr expr, Set<String> context) {
+        if (expr instanceof Variable) {
+            String local = uses.get(expr);
+            if (local != null && context != null) context.add(local);
+        } else if (expr instanceof Assign) {
+            scan(((Assign) expr).value, null);
+        } else if (expr instanceof Grouping) {
+            scan(((Grouping) expr).expression, context);
+        } else if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS:
+                    break;
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    context = boxedUses;
+                    break;
+                default:
+                    context = numericUses;
+                    break;
+            }
+            scan(binary.left, context);
+            scan(binary.right, context);
+        } else if (expr instanceof Unary) {
+            Unary unary = (Unary) expr;
+            scan(unary.right, unary.operator.type == TokenType.MINUS ? numericUses : boxedUses);
+        }
+    }
+
+    private boolean numeric(Expr expr, Set<String> numbers) {
+        if (expr instanceof Variable) {
+            String local = uses.get(expr);
+            return local != null && numbers.contains(local);
+        }
+        if (expr instanceof Grouping) {
+            return numeric(((Grouping) expr).expression, numbers);
+        }
+        if (expr instanceof Binary && ((Binary) expr).operator.type == TokenType.PLUS) {
+            Binary binary = (Binary) expr;
+            return numeric(binary.left, numbers) && numeric(binary.right, numbers);
+        }
+        return expr.numeric;
+    }
+
+    /**
+     * The Tokens of the globals the generated code refers to by index.
+     */
+    Token[] tokens() {
+        return tokens.toArray(new Token[0]);
+    }
+
+    private int token(Token name) {
+        tokens.add(name);
+        return tokens.size() - 1;
+    }
+
+    /**
+     * The Java local of a variable, the local itself for one declared in
+     * the statement, and for one from outside the local it is loaded into.
+     */
+    private String local(Token name, int depth, int slot) {
+        if (depth >= 0 && depth < frames.size()) {
+            return super.getLocal(depth, slot);
+        }
+        if (depth < 0) {
+            String local = "g_" + name.lexeme();
+            if (!outers.containsKey(local)) {
+                int token = token(name);
+                outers.put(local, new Outer("global(" + token + ")",
+                        "globals.assign(tokens[" + token + "], " + local + ")", true));
+            }
+            return local;
+        }
+        int outer = depth - frames.size();
+        String local = "o" + outer + "_" + slot;
+        if (!outers.containsKey(local)) {
+            outers.put(local, new Outer("environment.getAt(" + outer + ", " + slot + ")",
+                    "environment.assignAt(" + outer + ", " + slot + ", " + local + ")", false));
+        }
+        return local;
+    }
+
+    private String assigned(String local) {
+        Outer outer = outers.get(local);
+        if (outer != null) outer.assigned = true;
+        return local;
+    }
+
+    @Override
+    boolean numeric(Expr expr) {
+        return numeric(expr, numbers);
+    }
+
+    @Override
+    String number(Expr expr) {
+        if (expr instanceof Variable) {
+            Variable variable = (Variable) expr;
+            return local(variable.name, variable.depth, variable.slot);
+        }
+        return super.number(expr);
+    }
+
+    @Override
+    public String visitVariableExpr(Variable expr) {
+        if (expr.upvalue < 0 && !expr.cell) {
+            uses.put(expr, local(expr.name, expr.depth, expr.slot));
+        }
+        return super.visitVariableExpr(expr);
+    }
+
+    @Override
+    String assignment(Assign expr) {
+        if (expr.upvalue >= 0 || expr.cell) return super.assignment(expr);
+        String local = local(expr.name, expr.depth, expr.slot);
+        uses.put(expr, local);
+        assigned.computeIfAbsent(local, key -> new ArrayList<>()).add(expr.value);
+        if (numbers.contains(local)) return assigned(local) + " = " + number(expr.value);
+        return super.assignment(expr);
+    }
+
+    @Override
+    public String visitAssignExpr(Assign expr) {
+        String local = uses.get(expr);
+        if (local != null && numbers.contains(local)) {
+            return "Double.valueOf(" + assignment(expr) + ")";
+        }
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    String declareLocal(String local, Stmt.Var stmt) {
+        if (stmt.initializer == null || stmt.cell) {
+            boxed.add(local);
+        } else {
+            assigned.computeIfAbsent(local, key -> new ArrayList<>()).add(stmt.initializer);
+        }
+        if (numbers.contains(local)) return "double " + local + " = " + number(stmt.initializer);
+        return super.declareLocal(local, stmt);
+    }
+
+    @Override
+    String getGlobal(Token name) {
+        return "LoxRuntime.get(" + local(name, -1, -1) + ", \"" + name.lexeme() + "\", " + name.line + ")";
+    }
+
+    @Override
+    String assignGlobal(Token name, String value) {
+        String local = assigned(local(name, -1, -1));
+        return local + " = LoxRuntime.assign(" + local + ", " + value
+                + ", \"" + name.lexeme() + "\", " + name.line + ")";
+    }
+
+    @Override
+    String defineGlobal(Token name, String value) {
+        return "globals.define(\"" + name.lexeme() + "\", " + value + ")";
+    }
+
+    @Override
+    String print(String value) {
+        return "out.println(LoxRuntime.stringify(" + value + "))";
+    }
+
+    @Override
+    String getLocal(int depth, int slot) {
+        return local(null, depth, slot);
+    }
+
+    @Override
+    String assignLocal(int depth, int slot, String value) {
+        return assigned(local(null, depth, slot)) + " = " + value;
+    }
+
+    @Override
+    String getUpvalue(Token name, int index) {
+        return "upvalues[" + index + "].value";
+    }
+
+    @Override
+    String cellValue(Token name, String cell) {
+        return "((Cell) " + cell + ").value";
+    }
+
+    @Override
+    String newCell(Token name, String value) {
+        return "new Cell(" + value + ")";
+    }
+
+    @Override
+    void unsupported(Token token, String what) {
+        throw new Unsupported(what);
+    }
+}
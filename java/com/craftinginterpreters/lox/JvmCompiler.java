@@ -0,0 +1,612 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Supper;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+
+/*
+ * JvmCompiler compiles a resolved syntax tree ahead of time into a JVM
+ * class, so a script runs as plain Java methods with no visitor dispatch
+ * left. It translates the tree to Java source and hands it to Javac.
+ *
+ * The generated class has a main method and a static run method.
+ *
+ * - Globals are static fields starting out as LoxRuntime.UNDEFINED.
+ * - Locals are Java locals. The Resolver's depth and slot pick the local
+ *   the same way Compiler picks a stack slot.
+ * - Expressions the Resolver marked numeric become primitive double
+ *   arithmetic. Comparisons of two numeric operands become primitive
+ *   comparisons.
+ * - Other additions, comparisons and equality tests go through an
+ *   OperatorSite each, an inline cache specialized to the operand types
+ *   the operator sees at runtime. Its invoker is kept in a static final
+ *   field, so HotSpot treats it like an invokedynamic call site.
+ * - Everything else calls LoxRuntime, which does the type checks the
+ *   Interpreter does, with the same error messages.
+ *
+ * A JVM method holds at most 64K of bytecode, so the top level statements
+ * are spread over several methods.
+ *
+ * How variables are reached is up to getGlobal, assignGlobal, defineGlobal,
+ * getLocal and assignLocal, which JitCompiler overrides to compile a
+ * subtree that runs against the Interpreter's environments instead. The
+ * Cells of captured variables only exist with functions, so only
+ * JitCompiler implements getUpvalue, cellValue and newCell. It also
+ * overrides numeric, number, assignment and declareLocal to keep the
+ * variables that only hold numbers as doubles.
+ */
+class JvmCompiler implements Expr.Visitor<String>, Stmt.Visitor<Void> {
+    private static final int STATEMENTS_PER_METHOD = 64;
+
+    final String className;
+    final StringBuilder code = new StringBuilder();
+    private final java.util.Set<String> globals = new TreeSet<>();
+    // OperatorSite.invoker arguments of every site, by site number.
+    private final List<String> sites = new ArrayList<>();
+    // Java names of the locals in each open block frame, by slot.
+    final List<List<String>> frames = new ArrayList<>();
+    private int nextLocal = 0;
+    int indent = 3;
+    private final ErrorReporter reporter;
+
+    JvmCompiler(String className, ErrorReporter reporter) {
+        this.className = className;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Compiles a script to class files.
+     *
+     * @param statements resolved statements
+     * @return class file bytes by binary class name, none when something
+     *         was reported unsupported
+     */
+    Map<String, byte[]> compile(List<Stmt> statements) {
+        String source = generate(statements);
+        // Unsupported code leaves placeholders javac may not accept.
+        if (reporter.hadError()) return Map.of();
+        return Javac.compile(className, source);
+    }
+
+    /**
+     * Translates a script to the Java source of its class.
+     *
+     * @param statements resolved statements
+     * @return Java source
+     */
+    String generate(List<Stmt> statements) {
+        int methods = 0;
+        for (int i = 0; i < statements.size(); i += STATEMENTS_PER_METHOD) {
+            code.append("\n    private static void part").append(methods++).append("() {\n");
+            code.append(TRY);
+            int end = Math.min(statements.size(), i + STATEMENTS_PER_METHOD);
+            for (Stmt statement : statements.subList(i, end)) {
+                compile(statement);
+            }
+            code.append(CATCH);
+            code.append("    }\n");
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("import java.lang.invoke.MethodHandle;\n\n");
+        source.append("import com.craftinginterpreters.runtime.LoxRuntime;\n");
+        source.append("import com.craftinginterpreters.runtime.OperatorSite;\n");
+        source.append("import com.craftinginterpreters.runtime.ScriptError;\n\n");
+        source.append("public final class ").append(className).append(" {\n");
+        source.append(siteFields());
+        for (String global : globals) {
+            source.append("    private static Object g_").append(global)
+                    .append(" = LoxRuntime.UNDEFINED;\n");
+        }
+        source.append("\n    public static void main(String[] args) {\n");
+        source.append("        try {\n");
+        source.append("            run();\n");
+        source.append("        } catch (ScriptError error) {\n");
+        source.append("            LoxRuntime.report(error);\n");
+        source.append("            System.exit(70);\n");
+        source.append("        }\n");
+        source.append("    }\n\n");
+        source.append("    public static void run() {\n");
+        for (int i = 0; i < methods; i++) {
+            source.append("        part").append(i).append("();\n");
+        }
+        source.append("    }\n");
+        source.append(code);
+        source.append("}\n");
+        return source.toString();
+    }
+
+    // MethodHandle.invokeExact throws Throwable, but Lox code only ever
+    // throws unchecked exceptions, so method bodies pass them through.
+    static final String TRY = "        try {\n";
+    static final String CATCH =
+            "        } catch (RuntimeException | Error error) {\n"
+            + "            throw error;\n"
+            + "        } catch (Throwable error) {\n"
+            + "            throw new IllegalStateException(error);\n"
+            + "        }\n";
+
+    /**
+     * Declarations of the OperatorSite fields the generated code uses.
+     */
+    String siteFields() {
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < sites.size(); i++) {
+            fields.append("    private static final MethodHandle s").append(i)
+                    .append(" = OperatorSite.invoker(").append(sites.get(i)).append(");\n");
+        }
+        return fields.toString();
+    }
+
+    /**
+     * A call of a new OperatorSite with two Object operands.
+     *
+     * @param operator name of the OperatorSite operator
+     * @param returnType Java type the site returns
+     */
+    private String site(String operator, String returnType, String left, String right, int line) {
+        sites.add("\"" + operator + "\", " + line);
+        return "((" + returnType + ") s" + (sites.size() - 1)
+                + ".invokeExact((Object) " + left + ", (Object) " + right + "))";
+    }
+
+    void compile(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < indent; i++) code.append("    ");
+        code.append(text).append('\n');
+    }
+
+    /**
+     * An expression as Java code of type Object.
+     */
+    private String object(Expr expr) {
+        if (numeric(expr)) {
+            return "Double.valueOf(" + number(expr) + ")";
+        }
+        return expr.accept(this);
+    }
+
+    /**
+     * Whether an expression is compiled to a double, the ones the Resolver
+     * marked numeric.
+     */
+    boolean numeric(Expr expr) {
+        return expr.numeric;
+    }
+
+    /**
+     * A numeric expression as Java code of type double.
+     */
+    String number(Expr expr) {
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            String operator = arithmetic(binary.operator.type);
+            if (numeric(binary.left) && numeric(binary.right)) {
+                return "(" + number(binary.left) + " " + operator + " " + number(binary.right) + ")";
+            }
+            String method;
+            switch (binary.operator.type) {
+                case MINUS: method = "subtract"; break;
+                case STAR: method = "multiply"; break;
+                case SLASH: method = "divide"; break;
+                default: throw new IllegalStateException("Not a numeric operator.");
+            }
+            return "LoxRuntime." + method + "(" + object(binary.left) + ", "
+                    + object(binary.right) + ", " + binary.operator.line + ")";
+        } else if (expr instanceof Unary) {
+            Unary unary = (Unary) expr;
+            if (numeric(unary.right)) {
+                return "(-" + number(unary.right) + ")";
+            }
+            return "(-LoxRuntime.checkNumberOperand(" + object(unary.right) + ", "
+                    + unary.operator.line + "))";
+        } else if (expr instanceof Literal) {
+            return javaDouble((double) ((Literal) expr).value);
+        } else if (expr instanceof Grouping) {
+            return number(((Grouping) expr).expression);
+        }
+        throw new IllegalStateException("Not a numeric expression.");
+    }
+
+    private static String arithmetic(TokenType operator) {
+        switch (operator) {
+            case MINUS: return "-";
+            case PLUS: return "+";
+            case STAR: return "*";
+            case SLASH: return "/";
+            default: return null;
+        }
+    }
+
+    /**
+     * An expression as Java code of type boolean, for conditions and
+     * comparisons, so they need no Boolean in between.
+     */
+    private String test(Expr expr) {
+        if (expr instanceof Grouping) {
+            return test(((Grouping) expr).expression);
+        }
+        if (expr instanceof Literal && ((Literal) expr).value instanceof Boolean) {
+            return ((Literal) expr).value.toString();
+        }
+        if (expr instanceof Unary && ((Unary) expr).operator.type == TokenType.BANG) {
+            return "!" + test(((Unary) expr).right);
+        }
+        if (expr instanceof Binary) {
+            String comparison = comparison((Binary) expr);
+            if (comparison != null) return comparison;
+        }
+        return "LoxRuntime.isTruthy(" + object(expr) + ")";
+    }
+
+    private String comparison(Binary expr) {
+        boolean numbers = numeric(expr.left) && numeric(expr.right);
+        String left = numbers ? number(expr.left) : object(expr.left);
+        String right = numbers ? number(expr.right) : object(expr.right);
+        int line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER:
+                return numbers ? "(" + left + " > " + right + ")"
+                        : site("greater", "boolean", left, right, line);
+            case GREATER_EQUAL:
+                return numbers ? "(" + left + " >= " + right + ")"
+                        : site("greaterEqual", "boolean", left, right, line);
+            case LESS:
+                return numbers ? "(" + left + " < " + right + ")"
+                        : site("less", "boolean", left, right, line);
+            case LESS_EQUAL:
+                return numbers ? "(" + left + " <= " + right + ")"
+                        : site("lessEqual", "boolean", left, right, line);
+            case EQUAL_EQUAL:
+                return numbers ? "LoxRuntime.sameNumber(" + left + ", " + right + ")"
+                        : site("equal", "boolean", left, right, line);
+            case BANG_EQUAL:
+                return numbers ? "!LoxRuntime.sameNumber(" + left + ", " + right + ")"
+                        : site("notEqual", "boolean", left, right, line);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reading a global, as a Java expression.
+     */
+    String getGlobal(Token name) {
+        globals.add(name.lexeme());
+        return "LoxRuntime.get(g_" + name.lexeme() + ", \"" + name.lexeme() + "\", " + name.line + ")";
+    }
+
+    /**
+     * Assigning a global, as a Java expression that can also stand as a
+     * statement.
+     */
+    String assignGlobal(Token name, String value) {
+        globals.add(name.lexeme());
+        return "g_" + name.lexeme() + " = LoxRuntime.assign(g_" + name.lexeme() + ", " + value
+                + ", \"" + name.lexeme() + "\", " + name.line + ")";
+    }
+
+    /**
+     * Defining a global, as a Java statement without the semicolon.
+     */
+    String defineGlobal(Token name, String value) {
+        globals.add(name.lexeme());
+        return "g_" + name.lexeme() + " = " + value;
+    }
+
+    /**
+     * Reading a local the Resolver found `depth` block frames out.
+     */
+    String getLocal(int depth, int slot) {
+        return frames.get(frames.size() - 1 - depth).get(slot);
+    }
+
+    /**
+     * Assigning a local, as a Java expression that can also stand as a
+     * statement.
+     */
+    String assignLocal(int depth, int slot, String value) {
+        return getLocal(depth, slot) + " = " + value;
+    }
+
+    /**
+     * Reading an upvalue of the function the code runs in, as a Java
+     * expression that can also be assigned.
+     */
+    String getUpvalue(Token name, int index) {
+        unsupported(name, "captured variables");
+        return "null";
+    }
+
+    /**
+     * The value held by the Cell of a captured local, as a Java expression
+     * that can also be assigned.
+     *
+     * @param cell the local holding the Cell
+     */
+    String cellValue(Token name, String cell) {
+        unsupported(name, "captured variables");
+        return "null";
+    }
+
+    /**
+     * A new Cell for a captured local, as a Java expression.
+     */
+    String newCell(Token name, String value) {
+        unsupported(name, "captured variables");
+        return "null";
+    }
+
+    /**
+     * An assignment as a Java expression without parentheses.
+     */
+    String assignment(Assign expr) {
+        String value = object(expr.value);
+        if (expr.upvalue >= 0) {
+            return getUpvalue(expr.name, expr.upvalue) + " = " + value;
+        }
+        if (expr.depth >= 0 && expr.cell) {
+            return cellValue(expr.name, getLocal(expr.depth, expr.slot)) + " = " + value;
+        }
+        if (expr.depth >= 0) {
+            return assignLocal(expr.depth, expr.slot, value);
+        }
+        return assignGlobal(expr.name, value);
+    }
+
+    void unsupported(Token token, String what) {
+        reporter.error(token, "Can't compile " + what + " to a class file yet.");
+    }
+
+    private static String javaDouble(double value) {
+        if (Double.isNaN(value)) return "Double.NaN";
+        if (value == Double.POSITIVE_INFINITY) return "Double.POSITIVE_INFINITY";
+        if (value == Double.NEGATIVE_INFINITY) return "Double.NEGATIVE_INFINITY";
+        return Double.toString(value);
+    }
+
+    private static String javaString(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        // Not \\u, javac would turn that into a line break
+                        // before reading the literal.
+                        builder.append(String.format("\\%03o", (int) c));
+                    } else if (c > 0x7e) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                    break;
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    @Override
+    public String visitAssignExpr(Assign expr) {
+        return "(" + assignment(expr) + ")";
+    }
+
+    @Override
+    public String visitBinaryExpr(Binary expr) {
+        switch (expr.operator.type) {
+            case PLUS:
+                return site("add", "Object", object(expr.left), object(expr.right), expr.operator.line);
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return "Double.valueOf(" + number(expr) + ")";
+            default:
+                break;
+        }
+        String comparison = comparison(expr);
+        if (comparison == null) {
+            unsupported(expr.operator, "operator");
+            return "null";
+        }
+        return "Boolean.valueOf(" + comparison + ")";
+    }
+
+    @Override
+    public String visitCallExpr(Call expr) {
+        unsupported(expr.paren, "calls");
+        return "null";
+    }
+
+    @Override
+    public String visitGetExpr(Get expr) {
+        unsupported(expr.name, "property access");
+        return "null";
+    }
+
+    @Override
+    public String visitGroupingExpr(Grouping expr) {
+        return object(expr.expression);
+    }
+
+    @Override
+    public String visitLiteralExpr(Literal expr) {
+        if (expr.value == null) return "null";
+        if (expr.value instanceof Boolean) return "Boolean." + ((Boolean) expr.value ? "TRUE" : "FALSE");
+        if (expr.value instanceof Double) return "Double.valueOf(" + javaDouble((double) expr.value) + ")";
+        return javaString((String) expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Logical expr) {
+        unsupported(expr.operator, "logical operators");
+        return "null";
+    }
+
+    @Override
+    public String visitSetExpr(Set expr) {
+        unsupported(expr.name, "property assignment");
+        return "null";
+    }
+
+    @Override
+    public String visitSupperExpr(Supper expr) {
+        unsupported(expr.keyword, "'super'");
+        return "null";
+    }
+
+    @Override
+    public String visitThisExpr(This expr) {
+        unsupported(expr.keyword, "'this'");
+        return "null";
+    }
+
+    @Override
+    public String visitUnaryExpr(Unary expr) {
+        switch (expr.operator.type) {
+            case MINUS: return "Double.valueOf(" + number(expr) + ")";
+            case BANG: return "Boolean.valueOf(" + test(expr) + ")";
+            default:
+                unsupported(expr.operator, "operator");
+                return "null";
+        }
+    }
+
+    @Override
+    public String visitVariableExpr(Variable expr) {
+        if (expr.upvalue >= 0) {
+            return getUpvalue(expr.name, expr.upvalue);
+        }
+        if (expr.depth >= 0) {
+            String local = getLocal(expr.depth, expr.slot);
+            return expr.cell ? cellValue(expr.name, local) : local;
+        }
+        return getGlobal(expr.name);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Assign) {
+            line(assignment((Assign) stmt.expression) + ";");
+        } else {
+            line("LoxRuntime.discard(" + object(stmt.expression) + ");");
+        }
+        return null;
+    }
+
+    /**
+     * Printing a value, as a Java statement without the semicolon.
+     */
+    String print(String value) {
+        return "LoxRuntime.print(" + value + ")";
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        line(print(object(stmt.expression)) + ";");
+        return null;
+    }
+
+    /**
+     * Declaring a local, as a Java statement without the semicolon.
+     *
+     * @param local the Java name of the local
+     */
+    String declareLocal(String local, Stmt.Var stmt) {
+        String value = stmt.initializer != null ? object(stmt.initializer) : "null";
+        if (stmt.cell) value = newCell(stmt.name, value);
+        return "Object " + local + " = " + value;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot < 0) {
+            String value = stmt.initializer != null ? object(stmt.initializer) : "null";
+            line(defineGlobal(stmt.name, value) + ";");
+        } else {
+            String local = "l" + nextLocal++;
+            line(declareLocal(local, stmt) + ";");
+            frames.get(frames.size() - 1).add(local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        line("{");
+        indent++;
+        if (stmt.locals > 0) frames.add(new ArrayList<>());
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        if (stmt.locals > 0) frames.remove(frames.size() - 1);
+        indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        line("if (" + test(stmt.condition) + ") {");
+        indent++;
+        compile(stmt.thenBranch);
+        indent--;
+        if (stmt.elseBranch != null) {
+            line("} else {");
+            indent++;
+            compile(stmt.elseBranch);
+            indent--;
+        }
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        line("while (LoxRuntime.loop(" + test(stmt.condition) + ")) {");
+        indent++;
+        compile(stmt.body);
+        indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        unsupported(stmt.name, "functions");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        unsupported(stmt.keyword, "'return'");
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        unsupported(stmt.name, "classes");
+        return null;
+    }
+}
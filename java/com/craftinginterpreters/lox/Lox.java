@@ -1,78 +1,250 @@
 package com.craftinginterpreters.lox;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
 import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import com.craftinginterpreters.runtime.InlineCacheStats;
+import com.craftinginterpreters.runtime.LoxRuntime;
 
 class Lox {
-    static boolean hasError = false;
-    private static final Interpreter interpreter = new Interpreter();
-
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+    private static final Options options = new Options();
+    // Print the hit rates of the inline caches at exit, the compiled code's
+    // and the Interpreter's method calls'.
+    private static boolean icStats = false;
+    // Compile scripts to class files here instead of running them.
+    private static Path compileOutput = null;
+    // Run every script under the given directory in parallel.
+    private static boolean batch = false;
+    // Serve runs on this Unix domain socket instead of running anything.
+    private static Path daemonSocket = null;
+    // Serve the Metrics on this port while running, -1 for not at all.
+    private static int metricsPort = -1;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int argc = 0;
+        while (argc < args.length && args[argc].startsWith("--")) {
+            String argument = args[argc];
+            try {
+                if (options.set(argument)) {
+                    argc++;
+                    continue;
+                }
+            } catch (IllegalArgumentException error) {
+                usage();
+            }
+            switch (argument) {
+                case "--ic-stats":
+                    icStats = true;
+                    break;
+                case "--batch":
+                    batch = true;
+                    break;
+                default:
+                    if (argument.startsWith("--compile=")) {
+                        compileOutput = Paths.get(argument.substring("--compile=".length()));
+                        break;
+                    }
+                    if (argument.startsWith("--daemon=")) {
+                        daemonSocket = Paths.get(argument.substring("--daemon=".length()));
+                        break;
+                    }
+                    if (argument.startsWith("--metrics=")) {
+                        try {
+                            metricsPort = Integer.parseInt(argument.substring("--metrics=".length()));
+                        } catch (NumberFormatException error) {
+                            usage();
+                        }
+                        if (metricsPort < 0 || metricsPort > 65535) usage();
+                        break;
+                    }
+                    usage();
+            }
+            argc++;
+        }
+
+        if (metricsPort >= 0) {
+            int port = Metrics.serve(metricsPort);
+            Metrics.registerMBean();
+            System.err.println("[metrics] Serving on http://127.0.0.1:" + port + "/metrics.");
+        }
+
+        int status = 0;
+        if (daemonSocket != null) {
+            if (args.length - argc > 0) usage();
+            Daemon.serve(daemonSocket);
+        } else if (args.length - argc > 1 || (batch && args.length - argc == 0)
+                || (batch && options.profileStacks != null)) {
+            usage();
+        } else if (batch) {
+            status = Batch.run(Paths.get(args[argc]), options);
+        } else if (args.length - argc == 1) {
+            status = runFile(args[argc]);
         } else {
             runPrompt();
         }
+
+        if (icStats) {
+            System.err.println("[ic] " + InlineCacheStats.snapshot());
+            System.err.println("[ic] " + MethodCache.stats());
+        }
+        Metrics.stop();
+        if (status != 0) System.exit(status);
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--optimize[=stats]] [--stream] [--cache | --cache-dir=dir] [--compile=dir|jar]"
+                + " [--jit[=threshold]] [--ic-stats] [--metrics=port]"
+                + " [--profile[=sample[:micros]]] [--profile-stacks=file] [--allocations] [script | --batch dir | --daemon=socket]");
+        System.exit(64);
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
-
-        for (;;) {
-            System.out.print("> ");
-            String line = reader.readLine();
-            if (line == null) break;
-            run(line);
-            if (Lox.hasError) {
-                break;
-            }
+    private static int runFile(String path) throws IOException {
+        if (compileOutput != null) {
+            return compileFile(Paths.get(path));
         }
+        Context context = context();
+        context.runFile(Paths.get(path));
+        context.finish();
+        return context.exitCode();
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        interpreter.interpret(statements);
-    }
+    /**
+     * Compiles a script to a class named after it, with a main method that
+     * runs the script. The class needs the runtime package on its class
+     * path. Writes the class files into the output directory, or into a jar
+     * when the output ends in ".jar". The jar gets the runtime package too,
+     * so "java -jar" runs it.
+     *
+     * @param script path of the script
+     * @return the exit status
+     */
+    private static int compileFile(Path script) throws IOException {
+        if (!Javac.available()) {
+            System.err.println("Compiling to class files needs a JDK.");
+            return 70;
+        }
 
-    public static void error(int line, String message) {
-        report(line, "", message);
-    }
+        Context context = context();
+        byte[] bytes = Files.readAllBytes(script);
+        List<Stmt> statements = context.parse(new String(bytes, Charset.defaultCharset()));
+        if (context.hadError()) return context.exitCode();
+        statements = context.prepare(statements);
+        if (context.hadError()) return context.exitCode();
+
+        String className = className(script);
+        Map<String, byte[]> classes;
+        try {
+            classes = new JvmCompiler(className, context.reporter).compile(statements);
+        } catch (IllegalStateException error) {
+            // A bug in code generation, javac's diagnostics say where.
+            System.err.println("[compile] " + error.getMessage());
+            return 70;
+        }
+        if (context.hadError()) return context.exitCode();
 
-    public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[livane " + error.token.line + "]");
-        hasError = true;
+        if (compileOutput.toString().endsWith(".jar")) {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+            try (OutputStream file = Files.newOutputStream(compileOutput);
+                 JarOutputStream jar = new JarOutputStream(file, manifest)) {
+                for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                    jar.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                    jar.write(entry.getValue());
+                    jar.closeEntry();
+                }
+                for (Map.Entry<String, byte[]> entry : runtimeClasses().entrySet()) {
+                    jar.putNextEntry(new JarEntry(entry.getKey()));
+                    jar.write(entry.getValue());
+                    jar.closeEntry();
+                }
+            }
+            return 0;
+        }
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            Path file = compileOutput.resolve(entry.getKey().replace('.', '/') + ".class");
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Files.write(file, entry.getValue());
+        }
+        return 0;
     }
-    public static void err(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+
+    /**
+     * The class files of the runtime package, by their path in a jar. They
+     * come from wherever this class was loaded from, the build directory or
+     * a jar.
+     */
+    private static Map<String, byte[]> runtimeClasses() throws IOException {
+        String packagePath = LoxRuntime.class.getPackageName().replace('.', '/');
+        Path location;
+        try {
+            location = Paths.get(LoxRuntime.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException error) {
+            throw new IOException(error);
+        }
+
+        Map<String, byte[]> classes = new TreeMap<>();
+        if (Files.isDirectory(location)) {
+            addClasses(location.resolve(packagePath), packagePath, classes);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            try (FileSystem jar = FileSystems.newFileSystem(location, (ClassLoader) null)) {
+                addClasses(jar.getPath(packagePath), packagePath, classes);
+            }
+        }
+        return classes;
+    }
+
+    private static void addClasses(Path directory, String packagePath,
+            Map<String, byte[]> classes) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.class")) {
+            for (Path file : files) {
+                classes.put(packagePath + "/" + file.getFileName(), Files.readAllBytes(file));
+            }
         }
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println(
-            "[line " + line + "] Error" + where + ": " + message 
-        );
-        hasError = true;
+    /**
+     * The script's file name without ".lox", made into a Java identifier.
+     */
+    private static String className(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (builder.length() == 0 || !Character.isJavaIdentifierStart(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        return builder.toString();
     }
 
+    private static Context context() {
+        return new Context(options, new PrintWriter(System.out, true), System.err);
+    }
 
+    private static void runPrompt() throws IOException {
+        PromptReader reader = new PromptReader(System.in);
+        Context context = context();
+        context.runStream(reader, reader);
+        context.finish();
+    }
 }
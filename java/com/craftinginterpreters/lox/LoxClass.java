@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A class value. Calling it makes a LoxInstance and runs its init method,
+ * if it or a superclass has one.
+ */
+final class LoxClass {
+    final String name;
+    final LoxClass superclass;
+    // The methods in the order the class declares them.
+    private final LoxFunction[] declared;
+    private final Map<String, LoxFunction> methods = new HashMap<>();
+    // Null when no class in the chain has an init method.
+    final LoxFunction initializer;
+    // The Shape of a new instance, the root of the Shapes of the classes
+    // made from the same declarations.
+    final Shape shape;
+    // The most fields an instance has had, so new ones start with room
+    // for them. Racy, any value is fine.
+    int capacity = 0;
+
+    LoxClass(String name, LoxClass superclass, LoxFunction[] declared, Shape shape) {
+        this.name = name;
+        this.superclass = superclass;
+        this.declared = declared;
+        this.shape = shape;
+        for (LoxFunction method : declared) {
+            methods.put(method.declaration.name.lexeme(), method);
+        }
+        this.initializer = findMethod("init");
+    }
+
+    /**
+     * Looks a method up in the class and then its superclasses.
+     *
+     * @return the method, not bound, or null if there is none
+     */
+    LoxFunction findMethod(String name) {
+        for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+            LoxFunction method = klass.methods.get(name);
+            if (method != null) return method;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of a method in this class's declaration, the last
+     * one by that name, or -1 if the class itself declares none.
+     */
+    int declaredIndex(String name) {
+        for (int i = declared.length - 1; i >= 0; i--) {
+            if (declared[i].declaration.name.lexeme().equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the method at an index of the declaration of the class depth
+     * superclasses up. Every class with the same Shape has the same one
+     * there.
+     */
+    LoxFunction method(int depth, int index) {
+        LoxClass klass = this;
+        for (int i = 0; i < depth; i++) klass = klass.superclass;
+        return klass.declared[index];
+    }
+
+    int arity() {
+        return initializer == null ? 0 : initializer.arity();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/*
+ * A resolved script, ready to run without going through the front end
+ * again.
+ *
+ * Every eval gets its own Interpreter over the context's Bindings, so
+ * concurrent evals are independent as long as their Bindings are. The
+ * statements are shared. The only things runs write into them are the
+ * Interpreter's operator specializations and inline caches, and every
+ * state of those is valid for any thread. The caches are keyed by Shapes
+ * that belong to the class declarations, so later evals hit the entries
+ * the first one made.
+ */
+public final class LoxCompiledScript extends CompiledScript {
+    private final LoxScriptEngine engine;
+    private final List<Stmt> statements;
+    private final String fileName;
+
+    LoxCompiledScript(LoxScriptEngine engine, List<Stmt> statements, String fileName) {
+        this.engine = engine;
+        this.statements = statements;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Runs the script against the context's Bindings.
+     *
+     * @param context the Bindings and the Writer to use
+     * @return the value of the last statement if it is an expression
+     *         statement, null otherwise
+     * @throws ScriptException on a runtime error
+     */
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        Bindings engineScope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (engineScope == null) engineScope = new SimpleBindings();
+        Bindings globalScope = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        Environment globals = new Environment(toLox(engineScope),
+                globalScope == null ? null : new Environment(toLox(globalScope), null));
+
+        Writer writer = context.getWriter();
+        PrintWriter out = writer instanceof PrintWriter ? (PrintWriter) writer : new PrintWriter(writer);
+        LoxScriptEngine.Errors errors = new LoxScriptEngine.Errors();
+        Interpreter interpreter = new Interpreter(errors, out, globals);
+        Metrics.Counts counts = Metrics.enabled() ? new Metrics.Counts() : null;
+        interpreter.enableMetrics(counts);
+
+        LoxEvents.Execute execute = new LoxEvents.Execute();
+        execute.begin();
+        long start = Metrics.start();
+        Object value = interpreter.interpret(statements);
+        Metrics.phase("execute", start);
+        Metrics.run(false);
+        if (counts != null) Metrics.record(counts);
+        execute.end(statements.size(), "interpreter", errors.hadRuntimeError());
+        out.flush();
+
+        String name = LoxScriptEngine.fileName(context);
+        errors.check(name != null ? name : fileName);
+        return value;
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Turns the Numbers that aren't Doubles into Doubles. Bindings that
+     * need no change are not written to, so evals can share them.
+     */
+    private static Map<String, Object> toLox(Bindings bindings) {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Number && !(value instanceof Double)) names.add(entry.getKey());
+        }
+        for (String name : names) {
+            bindings.put(name, ((Number) bindings.get(name)).doubleValue());
+        }
+        return bindings;
+    }
+}
@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * Java Flight Recorder events for running Lox, so a recording shows the
+ * phases of each program and its errors next to GC, safepoints and JIT
+ * compilation.
+ *
+ * The phase events have a duration and a threshold: a phase that takes
+ * less is not recorded. The defaults keep only slow phases, a recording
+ * can change them like for any other event, with a .jfc file such as
+ * util/lox.jfc or with Recording.enable(name).withThreshold(duration).
+ *
+ * When no recording has an event enabled, begin, end and shouldCommit
+ * cost next to nothing and the counts are never computed. The error
+ * events are instant and only built when enabled.
+ */
+final class LoxEvents {
+    private LoxEvents() {}
+
+    @Name("lox.Scan")
+    @Label("Lox Scan")
+    @Category({ "Lox", "Phases" })
+    @Description("Turning a program's source into tokens")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Scan extends Event {
+        @Label("Characters")
+        int characters;
+
+        @Label("Tokens")
+        int tokens;
+
+        void end(int characters, int tokens) {
+            end();
+            if (!shouldCommit()) return;
+            this.characters = characters;
+            this.tokens = tokens;
+            commit();
+        }
+    }
+
+    @Name("lox.Parse")
+    @Label("Lox Parse")
+    @Category({ "Lox", "Phases" })
+    @Description("Building the syntax tree from the tokens, with the scanning too when streaming")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Parse extends Event {
+        @Label("Statements")
+        @Description("Top level statements")
+        int statements;
+
+        @Label("Nodes")
+        @Description("Nodes in the syntax tree")
+        int nodes;
+
+        void end(List<Stmt> statements) {
+            end();
+            if (!shouldCommit()) return;
+            this.statements = statements.size();
+            this.nodes = NodeCounter.count(statements);
+            commit();
+        }
+    }
+
+    @Name("lox.Resolve")
+    @Label("Lox Resolve")
+    @Category({ "Lox", "Phases" })
+    @Description("Optimizing, when asked to, and resolving the syntax tree")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Resolve extends Event {
+        @Label("Nodes")
+        @Description("Nodes in the syntax tree after optimizing")
+        int nodes;
+
+        @Label("Optimized")
+        boolean optimized;
+
+        void end(List<Stmt> statements, boolean optimized) {
+            end();
+            if (!shouldCommit()) return;
+            this.nodes = NodeCounter.count(statements);
+            this.optimized = optimized;
+            commit();
+        }
+    }
+
+    @Name("lox.Execute")
+    @Label("Lox Execute")
+    @Category({ "Lox", "Phases" })
+    @Description("Running resolved statements")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static final class Execute extends Event {
+        @Label("Statements")
+        @Description("Top level statements")
+        int statements;
+
+        @Label("Engine")
+        @Description("interpreter or vm")
+        String engine;
+
+        @Label("Failed")
+        @Description("Whether the run ended in a runtime error")
+        boolean failed;
+
+        void end(int statements, String engine, boolean failed) {
+            end();
+            if (!shouldCommit()) return;
+            this.statements = statements;
+            this.engine = engine;
+            this.failed = failed;
+            commit();
+        }
+    }
+
+    @Name("lox.CompileError")
+    @Label("Lox Compile Error")
+    @Category({ "Lox", "Errors" })
+    @Description("An error found scanning, parsing, resolving or compiling a program")
+    @StackTrace(false)
+    static final class CompileError extends Event {
+        @Label("Line")
+        int line;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category({ "Lox", "Errors" })
+    @Description("An error that stopped a running program")
+    @StackTrace(false)
+    static final class RunError extends Event {
+        @Label("Line")
+        int line;
+
+        @Label("Message")
+        String message;
+    }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * A function value: its declaration and the Cells of the variables it
+ * captured, by upvalue index. It keeps no Environment alive.
+ *
+ * A method is a LoxFunction too. The class holds it unbound, a property
+ * access binds it to the instance, which a call puts in the slot of
+ * `this`, the one after the parameters.
+ */
+final class LoxFunction {
+    final Stmt.Function declaration;
+    final Cell[] upvalues;
+    // The instance of a bound method, null otherwise.
+    final LoxInstance receiver;
+    // Whether this is an init method, which returns the instance.
+    final boolean initializer;
+
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues) {
+        this(declaration, upvalues, null, false);
+    }
+
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues, LoxInstance receiver, boolean initializer) {
+        this.declaration = declaration;
+        this.upvalues = upvalues;
+        this.receiver = receiver;
+        this.initializer = initializer;
+    }
+
+    LoxFunction bind(LoxInstance instance) {
+        return new LoxFunction(declaration, upvalues, instance, initializer);
+    }
+
+    int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + declaration.name.lexeme() + ">";
+    }
+}
@@ -0,0 +1,39 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * An instance of a LoxClass. Its fields are an array in the order they
+ * were added, and its Shape says which name is in which slot.
+ */
+final class LoxInstance {
+    final LoxClass klass;
+    Shape shape;
+    Object[] fields;
+
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+        this.shape = klass.shape;
+        this.fields = new Object[klass.capacity];
+    }
+
+    /**
+     * Adds a field, moving the instance to the next Shape.
+     *
+     * @param next the Shape with the field, shape.with(name)
+     * @param slot the slot of the field in next, shape.size()
+     */
+    void add(Shape next, int slot, Object value) {
+        if (slot >= fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            if (fields.length > klass.capacity) klass.capacity = fields.length;
+        }
+        shape = next;
+        fields[slot] = value;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,169 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/*
+ * Lox as a javax.script engine.
+ *
+ * Compiling a script scans, parses, optionally optimizes and resolves it
+ * once. The LoxCompiledScript it returns only executes, as often as needed
+ * and from as many threads as needed. eval compiles and runs in one go.
+ *
+ * The global variables of a run are the ENGINE_SCOPE Bindings, with the
+ * GLOBAL_SCOPE Bindings behind them: a script reads what Java put there,
+ * and its var declarations and assignments end up there. Lox only has
+ * doubles, so other Numbers in the Bindings are turned into Doubles first.
+ * print goes to the context's Writer. Errors are thrown as ScriptExceptions
+ * with the message the command line would print.
+ *
+ * Set OPTIMIZE to Boolean.TRUE in the context to run the Optimizer on the
+ * scripts compiled afterwards.
+ */
+public final class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    /** Attribute that turns on the Optimizer when compiling, a Boolean. */
+    public static final String OPTIMIZE = "lox.optimize";
+
+    private final LoxScriptEngineFactory factory;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    /*
+     * Collects errors for a ScriptException instead of printing them.
+     */
+    static final class Errors extends ErrorReporter {
+        private final StringBuilder text = new StringBuilder();
+        private int line = -1;
+
+        Errors() {
+            super(null);
+        }
+
+        @Override
+        void report(int line, String text) {
+            if (this.line < 0) this.line = line;
+            if (this.text.length() > 0) this.text.append('\n');
+            this.text.append(text);
+        }
+
+        /**
+         * @param fileName the script's name, null if it has none
+         * @throws ScriptException with every error so far, at the line of
+         *         the first one
+         */
+        void check(String fileName) throws ScriptException {
+            if (hadError()) throw new ScriptException(text.toString(), fileName, line);
+        }
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(script, context);
+    }
+
+    private CompiledScript compile(String script, ScriptContext context) throws ScriptException {
+        Errors errors = new Errors();
+        LoxEvents.Scan scan = new LoxEvents.Scan();
+        scan.begin();
+        long start = Metrics.start();
+        TokenBuffer tokens = new Scanner(script, errors).scanTokens();
+        Metrics.phase("scan", start);
+        scan.end(script.length(), tokens.size());
+
+        LoxEvents.Parse parse = new LoxEvents.Parse();
+        parse.begin();
+        start = Metrics.start();
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        Metrics.phase("parse", start);
+        parse.end(statements);
+        String fileName = fileName(context);
+        errors.check(fileName);
+
+        LoxEvents.Resolve resolve = new LoxEvents.Resolve();
+        resolve.begin();
+        start = Metrics.start();
+        boolean optimized = Boolean.TRUE.equals(context.getAttribute(OPTIMIZE));
+        if (optimized) {
+            statements = optimize(statements);
+        }
+        new Resolver(errors).resolve(statements);
+        Metrics.phase("resolve", start);
+        resolve.end(statements, optimized);
+        errors.check(fileName);
+        return new LoxCompiledScript(this, statements, fileName);
+    }
+
+    /**
+     * Runs the Optimizer, which drops expression statements that fold to a
+     * literal. The last one is kept, it is the value of the script.
+     */
+    private static List<Stmt> optimize(List<Stmt> statements) {
+        Optimizer optimizer = new Optimizer();
+        int last = statements.size() - 1;
+        if (last < 0 || !(statements.get(last) instanceof Stmt.Expression)) {
+            return optimizer.optimize(statements);
+        }
+        List<Stmt> optimized = new ArrayList<>(optimizer.optimize(statements.subList(0, last)));
+        Expr value = ((Stmt.Expression) statements.get(last)).expression;
+        optimized.add(new Stmt.Expression(optimizer.optimize(value)));
+        return optimized;
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(read(script));
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script, context).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return compile(read(reader), context).eval(context);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    static String fileName(ScriptContext context) {
+        Object fileName = context.getAttribute(ScriptEngine.FILENAME);
+        return fileName == null ? null : fileName.toString();
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                source.append(buffer, 0, read);
+            }
+        } catch (IOException error) {
+            throw new ScriptException(error);
+        }
+        return source.toString();
+    }
+}
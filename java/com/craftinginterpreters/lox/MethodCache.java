@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The method lookups of one Interpreter, for the call sites whose
+ * InvokeCache went megamorphic: a direct-mapped table from a class and a
+ * name to the method, filled by looking the method up in the class chain
+ * on a miss. A colliding pair just replaces the entry.
+ *
+ * Entries never go stale, a class's methods and superclass are fixed when
+ * it is declared. An entry for a class nobody uses any more stays until
+ * something replaces it.
+ *
+ * It also counts how call sites fared. The counts are plain fields for
+ * the Interpreter's thread and go to process-wide totals after each run,
+ * which stats() reads.
+ */
+final class MethodCache {
+    private static final int SIZE = 256;
+
+    private static final LongAdder totalSiteHits = new LongAdder();
+    private static final LongAdder totalSiteMisses = new LongAdder();
+    private static final LongAdder totalGlobalHits = new LongAdder();
+    private static final LongAdder totalGlobalMisses = new LongAdder();
+    private static final LongAdder totalMegamorphicSites = new LongAdder();
+
+    private final LoxClass[] classes = new LoxClass[SIZE];
+    private final String[] names = new String[SIZE];
+    private final LoxFunction[] methods = new LoxFunction[SIZE];
+
+    // Calls the site's InvokeCache answered, and the ones it did not.
+    long siteHits = 0;
+    long siteMisses = 0;
+    // Lookups of megamorphic sites this cache answered, and the ones it
+    // did not.
+    long globalHits = 0;
+    long globalMisses = 0;
+    // Sites that went megamorphic.
+    long megamorphicSites = 0;
+
+    /**
+     * Looks a method up, in the table first.
+     *
+     * @return the method, not bound, or null if the class has none
+     */
+    LoxFunction find(LoxClass klass, String name) {
+        int index = (System.identityHashCode(klass) * 31 + name.hashCode()) & (SIZE - 1);
+        if (classes[index] == klass && name.equals(names[index])) {
+            globalHits++;
+            return methods[index];
+        }
+        globalMisses++;
+        LoxFunction method = klass.findMethod(name);
+        if (method != null) {
+            classes[index] = klass;
+            names[index] = name;
+            methods[index] = method;
+        }
+        return method;
+    }
+
+    /**
+     * Adds the counts to the totals and clears them.
+     */
+    void flush() {
+        totalSiteHits.add(siteHits);
+        totalSiteMisses.add(siteMisses);
+        totalGlobalHits.add(globalHits);
+        totalGlobalMisses.add(globalMisses);
+        totalMegamorphicSites.add(megamorphicSites);
+        siteHits = 0;
+        siteMisses = 0;
+        globalHits = 0;
+        globalMisses = 0;
+        megamorphicSites = 0;
+    }
+
+    static Stats stats() {
+        return new Stats(totalSiteHits.sum(), totalSiteMisses.sum(), totalGlobalHits.sum(),
+                totalGlobalMisses.sum(), totalMegamorphicSites.sum());
+    }
+
+    /*
+     * The totals of every run in the process so far.
+     */
+    static final class Stats {
+        final long siteHits;
+        final long siteMisses;
+        final long globalHits;
+        final long globalMisses;
+        final long megamorphicSites;
+
+        private Stats(long siteHits, long siteMisses, long globalHits, long globalMisses, long megamorphicSites) {
+            this.siteHits = siteHits;
+            this.siteMisses = siteMisses;
+            this.globalHits = globalHits;
+            this.globalMisses = globalMisses;
+            this.megamorphicSites = megamorphicSites;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("method calls: %d site hits, %d site misses, %.2f%% hit rate,"
+                    + " %d megamorphic sites, global cache %d hits, %d misses",
+                    siteHits, siteMisses, 100.0 * siteHits / (siteHits + siteMisses),
+                    megamorphicSites, globalHits, globalMisses);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.craftinginterpreters.runtime.InlineCacheStats;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Counters and histograms for every program the process runs, to watch
+ * the interpreter in a long-lived process such as the Daemon or a service
+ * that embeds the LoxScriptEngine.
+ *
+ * Nothing is counted until serve or registerMBean turns the metrics on.
+ * After that every new Context and every eval of the engine counts:
+ *
+ *   lox_runs_total                 runs, by engine
+ *   lox_statements_executed_total  statements the Interpreter ran
+ *   lox_environments_created_total frames the Interpreter made for blocks
+ *   lox_variable_lookup_depth      enclosing frames walked to read a local
+ *   lox_global_lookups_total       reads of global variables, found by name
+ *   lox_runtime_errors_total       runtime errors, by message
+ *   lox_phase_duration_seconds     time in scan, parse, resolve and execute
+ *   lox_inline_cache_*             InlineCacheStats of the compiled code
+ *   lox_method_cache_*             MethodCache stats of the Interpreter
+ *
+ * The Interpreter counts into a Counts of its own with plain stores, and
+ * the Context adds them to the shared LongAdders once a run is done, so
+ * counting costs a run next to nothing. Statements in code the JIT compiled
+ * are not counted.
+ *
+ * serve publishes the metrics in the Prometheus text format over HTTP on
+ * the loopback interface, registerMBean as the MXBean
+ * com.craftinginterpreters.lox:type=Metrics.
+ */
+public final class Metrics {
+    // Distinct runtime error messages to keep, the rest count as "other".
+    static final int MAX_MESSAGES = 100;
+
+    private static final double[] DEPTH_BOUNDS = { 0, 1, 2, 3, 4, 6, 8, 12, 16 };
+    private static final double[] SECONDS_BOUNDS =
+            { 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10 };
+    private static final String[] PHASES = { "scan", "parse", "resolve", "execute" };
+
+    private static volatile boolean enabled = false;
+    private static HttpServer server = null;
+
+    private static final LongAdder interpreterRuns = new LongAdder();
+    private static final LongAdder vmRuns = new LongAdder();
+    private static final LongAdder statements = new LongAdder();
+    private static final LongAdder environments = new LongAdder();
+    private static final LongAdder globalLookups = new LongAdder();
+    private static final Histogram lookupDepths = new Histogram(DEPTH_BOUNDS);
+    private static final ConcurrentMap<String, LongAdder> runtimeErrors = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> phases = new LinkedHashMap<>();
+
+    static {
+        for (String phase : PHASES) {
+            phases.put(phase, new Histogram(SECONDS_BOUNDS));
+        }
+    }
+
+    private Metrics() {}
+
+    /*
+     * A histogram with fixed upper bounds and one more bucket for
+     * everything above the last.
+     */
+    private static final class Histogram {
+        final double[] bounds;
+        final LongAdder[] buckets;
+        final DoubleAdder sum = new DoubleAdder();
+        final LongAdder count = new LongAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observe(double value, long times) {
+            int bucket = 0;
+            while (bucket < bounds.length && value > bounds[bucket]) bucket++;
+            buckets[bucket].add(times);
+            sum.add(value * times);
+            count.add(times);
+        }
+
+        /**
+         * The cumulative counts by upper bound, the way Prometheus has them.
+         */
+        Map<String, Long> cumulative() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                total += buckets[i].sum();
+                counts.put(i < bounds.length ? format(bounds[i]) : "+Inf", total);
+            }
+            return counts;
+        }
+    }
+
+    /*
+     * What one Interpreter counted since the last record. Not thread-safe.
+     */
+    static final class Counts {
+        long statements = 0;
+        long environments = 0;
+        long globalLookups = 0;
+        // Indexed by depth, the last element for all deeper ones.
+        final long[] depths = new long[17];
+
+        void lookup(int depth) {
+            depths[Math.min(depth, depths.length - 1)]++;
+        }
+    }
+
+    static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Serves the metrics in the Prometheus text format at /metrics, on the
+     * loopback interface only, and turns them on.
+     *
+     * @param port to listen on, 0 for any free one
+     * @return the port listened on
+     * @throws IOException if the port can't be bound
+     * @throws IllegalStateException if the metrics are served already
+     */
+    public static synchronized int serve(int port) throws IOException {
+        if (server != null) throw new IllegalStateException("The metrics are served already.");
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "lox-metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        http.start();
+        server = http;
+        enabled = true;
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving the metrics. They keep being counted.
+     */
+    public static synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        server = null;
+    }
+
+    /**
+     * Registers the MXBean with the platform MBeanServer, and turns the
+     * metrics on. Does nothing if it is registered already.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.craftinginterpreters.lox:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+            }
+        } catch (JMException error) {
+            throw new IllegalStateException("Could not register the metrics MBean.", error);
+        }
+        enabled = true;
+    }
+
+    /**
+     * The start of a phase, to pass to phase when it ends.
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void phase(String phase, long start) {
+        if (start == 0) return;
+        phases.get(phase).observe((System.nanoTime() - start) / 1e9, 1);
+    }
+
+    static void run(boolean vm) {
+        if (!enabled) return;
+        (vm ? vmRuns : interpreterRuns).increment();
+    }
+
+    /**
+     * Adds what an Interpreter counted and clears its counts.
+     */
+    static void record(Counts counts) {
+        statements.add(counts.statements);
+        environments.add(counts.environments);
+        globalLookups.add(counts.globalLookups);
+        for (int depth = 0; depth < counts.depths.length; depth++) {
+            if (counts.depths[depth] > 0) lookupDepths.observe(depth, counts.depths[depth]);
+        }
+        counts.statements = 0;
+        counts.environments = 0;
+        counts.globalLookups = 0;
+        Arrays.fill(counts.depths, 0);
+    }
+
+    static void runtimeError(String message) {
+        if (!enabled) return;
+        LongAdder count = runtimeErrors.get(message);
+        if (count == null) {
+            if (runtimeErrors.size() >= MAX_MESSAGES) message = "other";
+            count = runtimeErrors.computeIfAbsent(message, key -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * All the metrics in the Prometheus text exposition format.
+     */
+    static String prometheus() {
+        StringBuilder text = new StringBuilder();
+        header(text, "lox_runs_total", "counter", "Programs run, by engine.");
+        sample(text, "lox_runs_total", "engine=\"interpreter\"", interpreterRuns.sum());
+        sample(text, "lox_runs_total", "engine=\"vm\"", vmRuns.sum());
+
+        header(text, "lox_statements_executed_total", "counter", "Statements the Interpreter executed.");
+        sample(text, "lox_statements_executed_total", null, statements.sum());
+        header(text, "lox_environments_created_total", "counter", "Environments the Interpreter created for blocks.");
+        sample(text, "lox_environments_created_total", null, environments.sum());
+        header(text, "lox_global_lookups_total", "counter", "Reads of global variables.");
+        sample(text, "lox_global_lookups_total", null, globalLookups.sum());
+
+        header(text, "lox_variable_lookup_depth", "histogram", "Enclosing environments walked to read a local variable.");
+        histogram(text, "lox_variable_lookup_depth", null, lookupDepths);
+
+        header(text, "lox_runtime_errors_total", "counter", "Runtime errors, by message.");
+        for (Map.Entry<String, Long> entry : runtimeErrors().entrySet()) {
+            sample(text, "lox_runtime_errors_total", "message=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        }
+
+        header(text, "lox_phase_duration_seconds", "histogram", "Time spent in each phase of a run.");
+        for (Map.Entry<String, Histogram> entry : phases.entrySet()) {
+            histogram(text, "lox_phase_duration_seconds", "phase=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+
+        InlineCacheStats stats = InlineCacheStats.snapshot();
+        header(text, "lox_inline_cache_sites", "gauge", "Operator sites in live compiled code.");
+        sample(text, "lox_inline_cache_sites", null, stats.sites);
+        header(text, "lox_inline_cache_megamorphic_sites", "gauge", "Operator sites that gave up caching.");
+        sample(text, "lox_inline_cache_megamorphic_sites", null, stats.megamorphicSites);
+        header(text, "lox_inline_cache_hits_total", "counter", "Operator calls the inline caches answered.");
+        sample(text, "lox_inline_cache_hits_total", null, stats.hits);
+        header(text, "lox_inline_cache_misses_total", "counter", "Operator calls the inline caches missed.");
+        sample(text, "lox_inline_cache_misses_total", null, stats.misses);
+
+        MethodCache.Stats methods = MethodCache.stats();
+        header(text, "lox_method_cache_hits_total", "counter", "Method calls the caches answered, by cache.");
+        sample(text, "lox_method_cache_hits_total", "cache=\"site\"", methods.siteHits);
+        sample(text, "lox_method_cache_hits_total", "cache=\"global\"", methods.globalHits);
+        header(text, "lox_method_cache_misses_total", "counter", "Method calls the caches missed, by cache.");
+        sample(text, "lox_method_cache_misses_total", "cache=\"site\"", methods.siteMisses);
+        sample(text, "lox_method_cache_misses_total", "cache=\"global\"", methods.globalMisses);
+        header(text, "lox_method_cache_megamorphic_sites_total", "counter",
+                "Method call sites that gave up caching.");
+        sample(text, "lox_method_cache_megamorphic_sites_total", null, methods.megamorphicSites);
+        return text.toString();
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, Object value) {
+        text.append(name);
+        if (labels != null) text.append('{').append(labels).append('}');
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder text, String name, String labels, Histogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (Map.Entry<String, Long> bucket : histogram.cumulative().entrySet()) {
+            sample(text, name + "_bucket", prefix + "le=\"" + bucket.getKey() + "\"", bucket.getValue());
+        }
+        sample(text, name + "_sum", labels, histogram.sum.sum());
+        sample(text, name + "_count", labels, histogram.count.sum());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double bound) {
+        return bound == Math.rint(bound) ? Long.toString((long) bound) : BigDecimal.valueOf(bound).toPlainString();
+    }
+
+    private static Map<String, Long> runtimeErrors() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : runtimeErrors.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * The metrics over JMX. The maps are by engine, upper bound, message,
+     * phase and MethodCache count.
+     */
+    public interface MetricsMXBean {
+        Map<String, Long> getRuns();
+        long getStatementsExecuted();
+        long getEnvironmentsCreated();
+        long getGlobalLookups();
+        Map<String, Long> getVariableLookupDepths();
+        Map<String, Long> getRuntimeErrors();
+        Map<String, Long> getPhaseCounts();
+        Map<String, Double> getPhaseSeconds();
+        long getInlineCacheHits();
+        long getInlineCacheMisses();
+        Map<String, Long> getMethodCache();
+        String getPrometheusText();
+    }
+
+    private static final class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getRuns() {
+            Map<String, Long> runs = new LinkedHashMap<>();
+            runs.put("interpreter", interpreterRuns.sum());
+            runs.put("vm", vmRuns.sum());
+            return runs;
+        }
+
+        @Override
+        public long getStatementsExecuted() {
+            return statements.sum();
+        }
+
+        @Override
+        public long getEnvironmentsCreated() {
+            return environments.sum();
+        }
+
+        @Override
+        public long getGlobalLookups() {
+            return globalLookups.sum();
+        }
+
+        @Override
+        public Map<String, Long> getVariableLookupDepths() {
+            return lookupDepths.cumulative();
+        }
+
+        @Override
+        public Map<String, Long> getRuntimeErrors() {
+            return runtimeErrors();
+        }
+
+        @Override
+        public Map<String, Long> getPhaseCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            phases.forEach((phase, histogram) -> counts.put(phase, histogram.count.sum()));
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getPhaseSeconds() {
+            Map<String, Double> seconds = new LinkedHashMap<>();
+            phases.forEach((phase, histogram) -> seconds.put(phase, histogram.sum.sum()));
+            return seconds;
+        }
+
+        @Override
+        public long getInlineCacheHits() {
+            return InlineCacheStats.snapshot().hits;
+        }
+
+        @Override
+        public long getInlineCacheMisses() {
+            return InlineCacheStats.snapshot().misses;
+        }
+
+        @Override
+        public Map<String, Long> getMethodCache() {
+            MethodCache.Stats stats = MethodCache.stats();
+            Map<String, Long> counts = new LinkedHashMap<>();
+            counts.put("siteHits", stats.siteHits);
+            counts.put("siteMisses", stats.siteMisses);
+            counts.put("globalHits", stats.globalHits);
+            counts.put("globalMisses", stats.globalMisses);
+            counts.put("megamorphicSites", stats.megamorphicSites);
+            return counts;
+        }
+
+        @Override
+        public String getPrometheusText() {
+            return prometheus();
+        }
+    }
+}
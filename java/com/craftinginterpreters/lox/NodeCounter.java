@@ -0,0 +1,151 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Supper;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+
+/*
+ * Counts the Stmt and Expr nodes of a syntax tree.
+ */
+class NodeCounter implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+    static int count(List<Stmt> statements) {
+        return new NodeCounter().countAll(statements);
+    }
+
+    private int countAll(List<? extends Stmt> statements) {
+        int count = 0;
+        for (Stmt statement : statements) {
+            count += count(statement);
+        }
+        return count;
+    }
+
+    private int count(Stmt statement) {
+        return statement == null ? 0 : statement.accept(this);
+    }
+
+    private int count(Expr expression) {
+        return expression == null ? 0 : expression.accept(this);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Assign expr) {
+        return 1 + count(expr.value);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Binary expr) {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitCallExpr(Call expr) {
+        int count = 1 + count(expr.callee);
+        for (Expr argument : expr.arguments) {
+            count += count(argument);
+        }
+        return count;
+    }
+
+    @Override
+    public Integer visitGetExpr(Get expr) {
+        return 1 + count(expr.object);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Grouping expr) {
+        return 1 + count(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Literal expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Logical expr) {
+        return 1 + count(expr.left) + count(expr.right);
+    }
+
+    @Override
+    public Integer visitSetExpr(Set expr) {
+        return 1 + count(expr.object) + count(expr.value);
+    }
+
+    @Override
+    public Integer visitSupperExpr(Supper expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitThisExpr(This expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Unary expr) {
+        return 1 + count(expr.right);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Variable expr) {
+        return 1;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return 1 + count(stmt.expression);
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return 1 + count(stmt.expression);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        return 1 + count(stmt.initializer);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        return 1 + countAll(stmt.statements);
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        return 1 + count(stmt.condition) + count(stmt.thenBranch) + count(stmt.elseBranch);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        return 1 + count(stmt.condition) + count(stmt.body);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        return 1 + countAll(stmt.body);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        return 1 + count(stmt.value);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        return 1 + count(stmt.superclass) + countAll(stmt.methods);
+    }
+}
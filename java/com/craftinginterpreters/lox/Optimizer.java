@@ -0,0 +1,308 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Supper;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+
+/*
+ * Optimizer rewrites the syntax tree right after parsing, before the
+ * Resolver annotates it.
+ *
+ * - Unary and Binary operators over literals are folded into a literal,
+ *   string concatenation included. Operations that would fail at runtime,
+ *   such as "a" - 1, are left alone so the error and its line stay the same.
+ * - Groupings are dropped, they only matter to the parser.
+ * - An if whose condition folds to a literal is replaced by the branch
+ *   that would run.
+ * - Expression statements that are a bare literal and empty blocks are
+ *   removed.
+ *
+ * Subtrees that do not change are returned as they are.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Marks an operation that must be left for runtime.
+    private static final Object UNFOLDABLE = new Object();
+
+    private int removed = 0;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        int before = NodeCounter.count(statements);
+        List<Stmt> optimized = optimizeAll(statements);
+        removed = before - NodeCounter.count(optimized);
+        return optimized;
+    }
+
+    /**
+     * Returns how many nodes the last call to optimize removed.
+     *
+     * @return int
+     */
+    int removed() {
+        return removed;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result != null) optimized.add(result);
+            changed |= result != statement;
+        }
+        return changed ? optimized : statements;
+    }
+
+    private Stmt optimize(Stmt statement) {
+        return statement == null ? null : statement.accept(this);
+    }
+
+    Expr optimize(Expr expression) {
+        return expression == null ? null : expression.accept(this);
+    }
+
+    private static Object fold(TokenType operator, Object left, Object right) {
+        boolean numbers = left instanceof Double && right instanceof Double;
+        switch (operator) {
+            case MINUS:
+                return numbers ? (Object) ((double) left - (double) right) : UNFOLDABLE;
+            case SLASH:
+                return numbers ? (Object) ((double) left / (double) right) : UNFOLDABLE;
+            case STAR:
+                return numbers ? (Object) ((double) left * (double) right) : UNFOLDABLE;
+            case PLUS:
+                if (numbers) return (double) left + (double) right;
+                if (left instanceof String && right instanceof String) {
+                    return (String) left + (String) right;
+                }
+                return null;
+            case GREATER:
+                return numbers ? (Object) ((double) left > (double) right) : UNFOLDABLE;
+            case GREATER_EQUAL:
+                return numbers ? (Object) ((double) left >= (double) right) : UNFOLDABLE;
+            case LESS:
+                return numbers ? (Object) ((double) left < (double) right) : UNFOLDABLE;
+            case LESS_EQUAL:
+                return numbers ? (Object) ((double) left <= (double) right) : UNFOLDABLE;
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            default:
+                return UNFOLDABLE;
+        }
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Literal && right instanceof Literal) {
+            Object value = fold(expr.operator.type,
+                    ((Literal) left).value, ((Literal) right).value);
+            if (value != UNFOLDABLE) return new Expr.Literal(value);
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr result = optimize(argument);
+            arguments.add(result);
+            changed |= result != argument;
+        }
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSupperExpr(Supper expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = optimize(expr.right);
+        if (right instanceof Literal) {
+            Object value = ((Literal) right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+                return new Expr.Literal(-(double) value);
+            }
+        }
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression instanceof Literal) return null;
+        if (expression == stmt.expression) return stmt;
+        return at(stmt, new Stmt.Expression(expression));
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return at(stmt, new Stmt.Print(expression));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return at(stmt, new Stmt.Var(stmt.name, initializer));
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if (statements.isEmpty()) return null;
+        if (statements == stmt.statements) return stmt;
+        return at(stmt, new Stmt.Block(statements));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal) {
+            if (Interpreter.isTruthy(((Literal) condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            return optimize(stmt.elseBranch);
+        }
+
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch);
+        if (thenBranch == null) {
+            thenBranch = at(stmt, new Stmt.Block(new ArrayList<>()));
+        }
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch
+                && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return at(stmt, new Stmt.If(condition, thenBranch, elseBranch));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Literal && !Interpreter.isTruthy(((Literal) condition).value)) {
+            return null;
+        }
+
+        Stmt body = optimize(stmt.body);
+        if (body == null) {
+            body = at(stmt, new Stmt.Block(new ArrayList<>()));
+        }
+        if (condition == stmt.condition && body == stmt.body) {
+            return stmt;
+        }
+        return at(stmt, new Stmt.While(condition, body));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        if (body == stmt.body) return stmt;
+        return at(stmt, new Stmt.Function(stmt.name, stmt.params, body));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        return at(stmt, new Stmt.Return(stmt.keyword, value));
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt optimized = optimize(method);
+            changed |= optimized != method;
+            methods.add((Stmt.Function) optimized);
+        }
+        if (!changed) return stmt;
+        return at(stmt, new Stmt.Class(stmt.name, stmt.superclass, methods));
+    }
+
+    /**
+     * Gives a rewritten statement the line of the one it replaces.
+     */
+    private static Stmt at(Stmt original, Stmt replacement) {
+        replacement.line = original.line;
+        return replacement;
+    }
+}
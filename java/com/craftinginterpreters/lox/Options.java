@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * How a Context runs programs, as set on the command line.
+ */
+class Options {
+    // Run programs on the bytecode VM instead of the tree-walking Interpreter.
+    boolean useVM = false;
+    // Fold constants and prune dead branches before running.
+    boolean optimize = false;
+    // Report how many nodes the optimizer removed, once the run is done.
+    boolean optimizeStats = false;
+    // Execute scripts statement by statement as they are read.
+    boolean stream = false;
+    // Keep parsed scripts in an AstCache.
+    boolean cache = false;
+    // Where the AstCache files go, null for next to each script.
+    Path cacheDirectory = null;
+    // The threshold of --jit. Compiling a statement costs javac's time, so
+    // only code that runs a lot longer than that is worth it.
+    static final int JIT_THRESHOLD = 10000;
+
+    // Compile hot blocks and loops after this many runs, 0 for never.
+    int jitThreshold = 0;
+    // Profile programs this way, null for not at all.
+    Profiler.Mode profile = null;
+    // Microseconds between the samples of Profiler.Mode.SAMPLE.
+    int profileInterval = 1000;
+    // Where the Profiler writes the collapsed stacks, null for nowhere.
+    Path profileStacks = null;
+    // Count what the Interpreter allocates by line.
+    boolean allocations = false;
+
+    /**
+     * Sets the option a command line argument names.
+     *
+     * @param argument such as "--vm" or "--jit=100"
+     * @return false if the argument is not an option of this class
+     * @throws IllegalArgumentException if the option's value is bad
+     */
+    boolean set(String argument) {
+        switch (argument) {
+            case "--vm":
+                useVM = true;
+                return true;
+            case "--optimize":
+                optimize = true;
+                return true;
+            case "--optimize=stats":
+                optimize = true;
+                optimizeStats = true;
+                return true;
+            case "--stream":
+                stream = true;
+                return true;
+            case "--cache":
+                cache = true;
+                return true;
+            case "--jit":
+                jitThreshold = JIT_THRESHOLD;
+                return true;
+            case "--profile":
+                profile = Profiler.Mode.COUNT;
+                return true;
+            case "--profile=sample":
+                profile = Profiler.Mode.SAMPLE;
+                return true;
+            case "--allocations":
+                allocations = true;
+                return true;
+            default:
+                break;
+        }
+        if (argument.startsWith("--cache-dir=")) {
+            cache = true;
+            cacheDirectory = Paths.get(argument.substring("--cache-dir=".length()));
+            return true;
+        }
+        if (argument.startsWith("--jit=")) {
+            try {
+                jitThreshold = Integer.parseInt(argument.substring("--jit=".length()));
+            } catch (NumberFormatException error) {
+                jitThreshold = 0;
+            }
+            if (jitThreshold <= 0) throw new IllegalArgumentException("Bad JIT threshold in " + argument + ".");
+            return true;
+        }
+        if (argument.startsWith("--profile=sample:")) {
+            profile = Profiler.Mode.SAMPLE;
+            try {
+                profileInterval = Integer.parseInt(argument.substring("--profile=sample:".length()));
+            } catch (NumberFormatException error) {
+                profileInterval = 0;
+            }
+            if (profileInterval <= 0) throw new IllegalArgumentException("Bad sampling interval in " + argument + ".");
+            return true;
+        }
+        if (argument.startsWith("--profile-stacks=")) {
+            if (profile == null) profile = Profiler.Mode.COUNT;
+            profileStacks = Paths.get(argument.substring("--profile-stacks=".length()));
+            return true;
+        }
+        return false;
+    }
+}
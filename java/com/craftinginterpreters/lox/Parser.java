@@ -10,27 +10,38 @@ import static com.craftinginterpreters.lox.TokenType.*;
  * is defined below.
  *
  * expression -> assignment ;
- * assignment -> IDENTIFIER "=" assignment
+ * assignment -> ( call "." )? IDENTIFIER "=" assignment
  *             | equality ;
  * equality   -> comparison( ("!=" | "==") comparison )* ;
  * comparison -> term ( ( ">" | ">=" | "<" | "<=") term ) ;
  * term       -> factor ( ( "-" | "+") factor )*;
  * factor     -> unary ( ( "*" | "/" ) unary )* ;
  * unary      -> ( "!" | "-" ) unary
- *             | primary ;
+ *             | call ;
+ * call       -> primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
+ * arguments  -> expression ( "," expression )* ;
  * primary    -> NUMBER | STRING | "true"
- *            | "false" | "nil" | "(" expression ")" | IDENTIFIER;
+ *            | "false" | "nil" | "(" expression ")" | IDENTIFIER
+ *            | "this" | "super" "." IDENTIFIER ;
  *
  *
  * below is statement grammar.
  *
  * program         -> declaration* EOF ;
- * declaration     -> varDel |
+ * declaration     -> classDecl | funDecl | varDel
  *                 | statement ;
+ * classDecl       -> "class" IDENTIFIER ( "<" IDENTIFIER )?
+ *                    "{" function* "}" ;
+ * funDecl         -> "fun" function ;
+ * function        -> IDENTIFIER "(" parameters? ")" block ;
+ * parameters      -> IDENTIFIER ( "," IDENTIFIER )* ;
  * varDel          -> "var" IDENTIFIER ("=" expression ? ";" ;
- * statement       -> expressionStmt | printStmt | block | ifStmt ;
+ * statement       -> expressionStmt | printStmt | block | ifStmt
+ *                  | whileStmt | returnStmt ;
+ * returnStmt      -> "return" expression? ";" ;
  * ifStmt          -> "if" "(" expression ")" statement
  *                    ("else" statement)? ;
+ * whileStmt       -> "while" "(" expression ")" statement ;
  * block           -> { declaration* } ;
  * expressionStmt  -> expression ";" ;
  * printStmt       -> "print" expression ";" ;
@@ -38,11 +49,28 @@ import static com.craftinginterpreters.lox.TokenType.*;
  */
 class Parser {
     private static class ParseError extends RuntimeException {}
-    private final List<Token> tokens;
+    // The most arguments a call passes, as in clox.
+    private static final int MAX_ARGUMENTS = 255;
+    private final TokenBuffer tokens;
+    // Cursor into the token buffer.
     private int current = 0;
+    private final ErrorReporter reporter;
+    // Whether the end of a line ends a statement that could go on, as in
+    // the REPL.
+    private boolean interactive = false;
     
-    Parser(List<Token> tokens) {
+    Parser(TokenBuffer tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Makes a complete statement end at the end of its line. An `if` then
+     * runs without waiting for a line that might start with `else`, and
+     * error recovery stops where the line does.
+     */
+    void interactive() {
+        interactive = true;
     }
 
     private Expr expression() {
@@ -57,36 +85,83 @@ class Parser {
         return statements;
     }
     private Stmt block() {
+        return new Stmt.Block(blockStatements());
+    }
+
+    private List<Stmt> blockStatements() {
         List<Stmt> statements = new ArrayList<>();
-        while (!check(RIGHT_PAREN) && !isAtEnd()) {
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
             statements.add(declaration());
         }
-        consume(RIGHT_PAREN, "Expect '}' after block.");
-
-        return new Stmt.Block(statements);
+        consume(RIGHT_BRACE, "Expect '}' after block.");
+        return statements;
     }
 
-    private Stmt declaration() {
-        if (match(VAR)) {
-            return varDeclaration();
+    /**
+     * Parses one declaration. On a syntax error, the error is reported, the
+     * tokens up to the next statement are skipped and null is returned.
+     *
+     * @return Stmt
+     */
+    Stmt declaration() {
+        try {
+            int line = tokens.line(current);
+            if (match(CLASS)) {
+                return at(line, classDeclaration());
+            }
+            if (match(FUN)) {
+                return at(line, function("function"));
+            }
+            if (match(VAR)) {
+                return at(line, varDeclaration());
+            }
+            return statement();
+        } catch (ParseError error) {
+            synchronize();
+            return null;
         }
-        return statement();
+    }
+
+    /**
+     * Drops the tokens consumed so far. Used when streaming, after every top
+     * level declaration, so the buffer only holds the statement being parsed.
+     */
+    void discardConsumed() {
+        tokens.discard(current);
+        current = 0;
     }
 
     private Stmt statement() {
+        int line = tokens.line(current);
         if (match(PRINT)) {
-            return printStatement();
+            return at(line, printStatement());
         }
 
-        if (match(LEFT_PAREN)) {
-            return block();
+        if (match(LEFT_BRACE)) {
+            return at(line, block());
         }
 
         if (match(IF)) {
-            return ifStatement();
+            return at(line, ifStatement());
+        }
+
+        if (match(WHILE)) {
+            return at(line, whileStatement());
         }
 
-        return expressionStatement();
+        if (match(RETURN)) {
+            return at(line, returnStatement());
+        }
+
+        return at(line, expressionStatement());
+    }
+
+    /**
+     * Records the line a statement starts on.
+     */
+    private static Stmt at(int line, Stmt statement) {
+        statement.line = line;
+        return statement;
     }
 
     private Stmt ifStatement() {
@@ -96,12 +171,70 @@ class Parser {
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
-        if (match(ELSE)) {
+        if (hasMore() && match(ELSE)) {
             elseBranch = statement();
         }
 
         return new Stmt.If(condition, thenBranch, elseBranch);
     }
+
+    private Stmt whileStatement() {
+        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        Expr condition = expression();
+        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        Stmt body = statement();
+
+        return new Stmt.While(condition, body);
+    }
+    private Stmt returnStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+        consume(SEMICOLON, "Expect ';' after return value.");
+        return new Stmt.Return(keyword, value);
+    }
+
+    private Stmt classDeclaration() {
+        Token name = consume(IDENTIFIER, "Expect class name.");
+        Expr.Variable superclass = null;
+        if (match(LESS)) {
+            superclass = new Expr.Variable(consume(IDENTIFIER, "Expect superclass name."));
+        }
+        consume(LEFT_BRACE, "Expect '{' before class body.");
+
+        List<Stmt.Function> methods = new ArrayList<>();
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            int line = tokens.line(current);
+            methods.add((Stmt.Function) at(line, function("method")));
+        }
+        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        return new Stmt.Class(name, superclass, methods);
+    }
+
+    /**
+     * Parses a function or a method after its keyword, if any.
+     *
+     * @param kind "function" or "method", for error messages
+     */
+    private Stmt function(String kind) {
+        Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        List<Token> params = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (params.size() >= MAX_ARGUMENTS) {
+                    error(peek(), "Can't have more than " + MAX_ARGUMENTS + " parameters.");
+                }
+                params.add(consume(IDENTIFIER, "Expect parameter name."));
+            } while (match(COMMA));
+        }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        return new Stmt.Function(name, params, blockStatements());
+    }
+
     private Stmt expressionStatement() {
         Expr expression = expression();
         consume(SEMICOLON, "Except ';' after expression");
@@ -135,6 +268,10 @@ class Parser {
                 Token name = ((Expr.Variable)expr).name;
                 return new Expr.Assign(name, value);
             }
+            if (expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr;
+                return new Expr.Set(get.object, get.name, value);
+            }
 
             throw error(equal, "Invalid assignment target");
         }
@@ -192,13 +329,43 @@ class Parser {
     }
 
     private Expr unary() {
-        if (match(BANG_EQUAL, MINUS)) {
+        if (match(BANG, MINUS)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
         }
 
-        return primary();
+        return call();
+    }
+
+    private Expr call() {
+        Expr expr = primary();
+
+        while (true) {
+            if (match(LEFT_PAREN)) {
+                expr = finishCall(expr);
+            } else if (match(DOT)) {
+                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                expr = new Expr.Get(expr, name);
+            } else {
+                break;
+            }
+        }
+        return expr;
+    }
+
+    private Expr finishCall(Expr callee) {
+        List<Expr> arguments = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (arguments.size() >= MAX_ARGUMENTS) {
+                    error(peek(), "Can't have more than " + MAX_ARGUMENTS + " arguments.");
+                }
+                arguments.add(expression());
+            } while (match(COMMA));
+        }
+        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        return new Expr.Call(callee, paren, arguments);
     }
 
     private Expr primary() {
@@ -207,7 +374,7 @@ class Parser {
         if (match(NIL)) return new Expr.Literal(null);
 
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
         }
 
         if (match(LEFT_PAREN)) {
@@ -217,20 +384,52 @@ class Parser {
             }
             return expr;
         }
+        if (match(THIS)) return new Expr.This(previous());
+        if (match(SUPER)) {
+            Token keyword = previous();
+            consume(DOT, "Expect '.' after 'super'.");
+            Token method = consume(IDENTIFIER, "Expect superclass method name.");
+            return new Expr.Supper(keyword, method);
+        }
         if (match(IDENTIFIER)) return new Expr.Variable(previous());
 
         throw error(peek(), "Expect expression.");
     }
 
     private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+        if (check(type)) {
+            advance();
+            return previous();
+        }
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Lox.err(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
+
+    private void synchronize() {
+        advance();
+        while (hasMore() && !isAtEnd()) {
+            if (tokens.is(current - 1, SEMICOLON)) return;
+
+            switch (tokens.type(current)) {
+                case CLASS:
+                case FUN:
+                case VAR:
+                case FOR:
+                case IF:
+                case WHILE:
+                case PRINT:
+                case RETURN:
+                    return;
+                default:
+                    break;
+            }
+            advance();
+        }
+    }
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
             if (check(type)) {
@@ -249,35 +448,45 @@ class Parser {
      */
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;        
+        return tokens.is(current, type);
+    }
+
+    boolean isAtEnd() {
+        return tokens.is(current, EOF);
     }
 
-    private boolean isAtEnd() {
-        return peek().type == EOF;
+    /**
+     * Whether the current token is there without reading another line.
+     * Always true unless interactive.
+     *
+     * @return boolean
+     */
+    private boolean hasMore() {
+        return !interactive || tokens.available(current);
     }
 
     /**
-     * Peeks current token.
+     * Peeks current token. Only needed for error messages, so the Token is
+     * built on demand from the buffer.
      * 
      * @return Token
      */
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     /**
-     * Returns the previous token. Where is it used.
+     * Returns the previous token, for the nodes that keep it.
      * 
      * @return Token
      */
     private Token previous() {
-        return tokens.get(current-1);
+        return tokens.token(current-1);
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) {
             current++;
         }
-        return previous();
     }
 }
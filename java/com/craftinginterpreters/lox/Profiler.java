@@ -0,0 +1,285 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Finds the Lox lines a program spends its time on.
+ *
+ * The Interpreter calls enter before and exit after every statement, with
+ * the line the statement starts on. The profiler keeps a tree with a node
+ * for every distinct stack of lines it has seen, and moves to the child
+ * node on enter and back to the parent on exit. Every node counts how
+ * often it was entered.
+ *
+ * In COUNT mode enter and exit also read the clock, and every node adds
+ * up its total time and its self time, the part not spent in statements
+ * nested in it. In SAMPLE mode the clock is never read. A thread looks at
+ * the node the Interpreter is in every interval and counts a sample for
+ * it, which costs the Interpreter far less.
+ *
+ * When the program is done, report prints the hottest lines and
+ * writeStacks writes the stacks in the collapsed format flamegraph.pl and
+ * speedscope read, one "frame;frame;frame weight" line per stack. The
+ * weight is self microseconds in COUNT mode and samples in SAMPLE mode.
+ *
+ * A profiler belongs to one Interpreter and is not thread-safe, except for
+ * the sampler reading the current node.
+ */
+final class Profiler {
+    enum Mode { COUNT, SAMPLE }
+
+    // Hot lines in the report.
+    static final int TOP = 20;
+
+    private static final VarHandle CURRENT;
+
+    static {
+        try {
+            CURRENT = MethodHandles.lookup().findVarHandle(Profiler.class, "current", Node.class);
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private static final class Node {
+        final Node parent;
+        final int line;
+        Node[] children = new Node[0];
+        long count = 0;
+        long totalNanos = 0;
+        long selfNanos = 0;
+        // Only written by the sampler.
+        long samples = 0;
+        // For the run of the node in progress.
+        long start = 0;
+        long childNanos = 0;
+
+        Node(Node parent, int line) {
+            this.parent = parent;
+            this.line = line;
+        }
+
+        Node child(int line) {
+            for (Node child : children) {
+                if (child.line == line) return child;
+            }
+            Node child = new Node(this, line);
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, children.length);
+            grown[children.length] = child;
+            children = grown;
+            return child;
+        }
+    }
+
+    private final Mode mode;
+    private final Node root = new Node(null, 0);
+    // Written by the Interpreter with opaque stores, so the sampler sees
+    // it without the cost of a volatile write on every statement.
+    private Node current = root;
+    private final Thread sampler;
+    private volatile boolean running = true;
+    private final long startNanos = System.nanoTime();
+    private long elapsedNanos = -1;
+
+    /**
+     * @param mode COUNT or SAMPLE
+     * @param intervalMicros time between samples, in SAMPLE mode
+     */
+    Profiler(Mode mode, int intervalMicros) {
+        this.mode = mode;
+        if (mode == Mode.SAMPLE) {
+            long interval = intervalMicros * 1000L;
+            sampler = new Thread(() -> {
+                while (running) {
+                    LockSupport.parkNanos(interval);
+                    Node node = (Node) CURRENT.getOpaque(this);
+                    if (node != root) node.samples++;
+                }
+            }, "lox-profiler");
+            sampler.setDaemon(true);
+            sampler.start();
+        } else {
+            sampler = null;
+        }
+    }
+
+    void enter(int line) {
+        Node node = ((Node) CURRENT.getOpaque(this)).child(line);
+        node.count++;
+        if (mode == Mode.COUNT) {
+            node.childNanos = 0;
+            node.start = System.nanoTime();
+        }
+        CURRENT.setOpaque(this, node);
+    }
+
+    void exit() {
+        Node node = (Node) CURRENT.getOpaque(this);
+        if (mode == Mode.COUNT) {
+            long elapsed = System.nanoTime() - node.start;
+            node.totalNanos += elapsed;
+            node.selfNanos += elapsed - node.childNanos;
+            node.parent.childNanos += elapsed;
+        }
+        CURRENT.setOpaque(this, node.parent);
+    }
+
+    /**
+     * Stops the sampler. Call once the program is done, before reporting.
+     */
+    void stop() {
+        if (elapsedNanos >= 0) return;
+        elapsedNanos = System.nanoTime() - startNanos;
+        running = false;
+        if (sampler != null) {
+            try {
+                sampler.join();
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * What the report shows for a line, summed over the nodes of the line.
+     * Self and total are nanoseconds in COUNT mode and samples in SAMPLE
+     * mode.
+     */
+    private static final class Line {
+        final int line;
+        long count = 0;
+        long self = 0;
+        long total = 0;
+
+        Line(int line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * Prints the TOP lines with the most self time.
+     *
+     * @param err where to print
+     * @param source the program's source, to show the lines, or null
+     */
+    void report(PrintStream err, String source) {
+        stop();
+        List<Line> lines = new ArrayList<>();
+        collect(root, lines, new int[0]);
+        lines.removeIf(line -> line == null);
+        lines.sort((a, b) -> a.self != b.self ? Long.compare(b.self, a.self) : Integer.compare(a.line, b.line));
+
+        long all = 0;
+        long statements = 0;
+        for (Line line : lines) {
+            all += line.self;
+            statements += line.count;
+        }
+        String[] text = source == null ? new String[0] : source.split("\r?\n", -1);
+        boolean timed = mode == Mode.COUNT;
+        String unit = timed ? "ms" : "samples";
+
+        err.printf("[profile] %d statements in %.1f ms, %s mode%n", statements, elapsedNanos / 1e6,
+                timed ? "count" : "sample");
+        err.printf("%6s %12s %12s %7s %12s %7s  %s%n", "line", "count",
+                "self " + unit, "self%", "total " + unit, "total%", "source");
+        for (int i = 0; i < Math.min(TOP, lines.size()); i++) {
+            Line line = lines.get(i);
+            String code = line.line >= 1 && line.line <= text.length ? text[line.line - 1].trim() : "";
+            err.printf("%6d %12d %12s %6.1f%% %12s %6.1f%%  %s%n", line.line, line.count,
+                    amount(line.self, timed), percent(line.self, all),
+                    amount(line.total, timed), percent(line.total, all), code);
+        }
+    }
+
+    private static String amount(long value, boolean timed) {
+        return timed ? String.format("%.3f", value / 1e6) : Long.toString(value);
+    }
+
+    private static double percent(long value, long all) {
+        return all == 0 ? 0 : 100.0 * value / all;
+    }
+
+    /**
+     * Adds the node and its subtree to the lines, indexed by line number.
+     * A node's total only counts if no node above it is on the same line,
+     * so nested statements on one line don't count its time twice.
+     *
+     * @return the samples in the subtree
+     */
+    private long collect(Node node, List<Line> lines, int[] path) {
+        long samples = node.samples;
+        int[] below = path;
+        if (node != root) {
+            while (lines.size() <= node.line) lines.add(null);
+            Line line = lines.get(node.line);
+            if (line == null) {
+                line = new Line(node.line);
+                lines.set(node.line, line);
+            }
+            line.count += node.count;
+            line.self += mode == Mode.COUNT ? node.selfNanos : node.samples;
+            below = Arrays.copyOf(path, path.length + 1);
+            below[path.length] = node.line;
+        }
+        for (Node child : node.children) {
+            samples += collect(child, lines, below);
+        }
+        if (node != root && !contains(path, node.line)) {
+            lines.get(node.line).total += mode == Mode.COUNT ? node.totalNanos : samples;
+        }
+        return samples;
+    }
+
+    private static boolean contains(int[] path, int line) {
+        for (int element : path) {
+            if (element == line) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the collapsed stacks.
+     *
+     * @param file where to write
+     * @param name to label the frames with, "name:line"
+     */
+    void writeStacks(Path file, String name) throws IOException {
+        stop();
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Node child : root.children) {
+                writeStacks(out, child, name, new StringBuilder());
+            }
+        }
+    }
+
+    private void writeStacks(Writer out, Node node, String name, StringBuilder stack) throws IOException {
+        int length = stack.length();
+        if (length > 0) stack.append(';');
+        stack.append(name).append(':').append(node.line);
+
+        long weight = mode == Mode.COUNT ? node.selfNanos / 1000 : node.samples;
+        if (weight > 0) {
+            out.write(stack.toString());
+            out.write(' ');
+            out.write(Long.toString(weight));
+            out.write('\n');
+        }
+        for (Node child : node.children) {
+            writeStacks(out, child, name, stack);
+        }
+        stack.setLength(length);
+    }
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/*
+ * The REPL's input. Reads one line at a time and prints a prompt before
+ * each: "> " when a new statement starts and "... " while the Parser still
+ * needs more lines to finish the current one.
+ */
+class PromptReader extends Reader {
+    private final BufferedReader input;
+    private String line = "";
+    private int position = 0;
+    private boolean continuation = false;
+
+    PromptReader(InputStream in) {
+        this.input = new BufferedReader(new InputStreamReader(in));
+    }
+
+    /**
+     * Marks the end of a statement, the next line read starts a new one.
+     */
+    void statementDone() {
+        continuation = false;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (position == line.length()) {
+            System.out.print(continuation ? "... " : "> ");
+            continuation = true;
+            String next = input.readLine();
+            if (next == null) return -1;
+            line = next + "\n";
+            position = 0;
+        }
+
+        int count = Math.min(length, line.length() - position);
+        line.getChars(position, position + count, buffer, offset);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Whether the current line has characters left. The next line is only
+     * read, and its prompt printed, when the Parser asks for it.
+     */
+    @Override
+    public boolean ready() {
+        return position < line.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * The inline cache of a property Get or Set: the slot of the name for
+ * each Shape the site has seen, up to LIMIT of them. A site that only
+ * ever sees one Shape is monomorphic, and a hit is one comparison and an
+ * array load. A site that sees more than LIMIT Shapes is megamorphic.
+ * It stops caching and looks the name up in the Shape every time.
+ *
+ * A Set that adds a field also caches the Shape the instance moves to,
+ * so adding a field the way instances usually do is a hit too.
+ *
+ * A cache never changes. A miss makes a new one and stores it in the
+ * node. Runs on other threads see either the old cache or the new one,
+ * and both are right, because a Shape's slots never change.
+ */
+final class PropertyCache {
+    // Shapes a site caches before it is megamorphic.
+    static final int LIMIT = 4;
+
+    static final PropertyCache EMPTY = new PropertyCache(new Shape[0], new int[0], new Shape[0]);
+    static final PropertyCache MEGAMORPHIC = new PropertyCache(new Shape[0], new int[0], new Shape[0]);
+
+    private final Shape[] shapes;
+    private final int[] slots;
+    // For a Set that adds the field, the Shape after it, otherwise null.
+    private final Shape[] next;
+
+    private PropertyCache(Shape[] shapes, int[] slots, Shape[] next) {
+        this.shapes = shapes;
+        this.slots = slots;
+        this.next = next;
+    }
+
+    /**
+     * Returns the entry for a Shape, or -1 on a miss.
+     */
+    int find(Shape shape) {
+        for (int i = 0; i < shapes.length; i++) {
+            if (shapes[i] == shape) return i;
+        }
+        return -1;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    Shape next(int entry) {
+        return next[entry];
+    }
+
+    /**
+     * Returns the cache with one more entry, or MEGAMORPHIC when this one
+     * is full.
+     *
+     * @param next the Shape a Set moves the instance to, null if none
+     */
+    PropertyCache add(Shape shape, int slot, Shape next) {
+        if (this == MEGAMORPHIC || shapes.length == LIMIT) return MEGAMORPHIC;
+        int size = shapes.length;
+        Shape[] nextShapes = Arrays.copyOf(shapes, size + 1);
+        int[] nextSlots = Arrays.copyOf(slots, size + 1);
+        Shape[] nextNext = Arrays.copyOf(this.next, size + 1);
+        nextShapes[size] = shape;
+        nextSlots[size] = slot;
+        nextNext[size] = next;
+        return new PropertyCache(nextShapes, nextSlots, nextNext);
+    }
+}
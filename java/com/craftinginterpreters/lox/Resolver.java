@@ -0,0 +1,535 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Supper;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+
+/*
+ * Resolver runs between the Parser and the Interpreter. It walks the syntax
+ * tree once and gives every local variable an address: the number of scopes
+ * between the use and the declaration (depth) and the position of the
+ * variable inside its scope (slot). The Interpreter then jumps straight to
+ * the right frame instead of looking the name up in each enclosing scope.
+ *
+ * Variables that are not found in any local scope are globals. They keep
+ * depth -1 and are still looked up by name, so the REPL can define them
+ * one line at a time.
+ *
+ * Blocks that declare nothing do not open a scope, which matches the
+ * Interpreter not allocating a frame for them.
+ *
+ * A function always opens a scope, its call frame: the parameters in the
+ * first slots and then the variables and functions its body declares
+ * outside of nested blocks. Its `locals` is the size of that frame. A
+ * frame encloses nothing, depths never reach past the function.
+ *
+ * It is also the escape analysis for closures. A local that a function
+ * declared inside its scope uses is captured: its slot holds a Cell, the
+ * declaration and the uses in its own function are marked `cell`, and the
+ * inner function gets an upvalue for it. Uses in the inner function read
+ * the upvalue instead of a slot. When the inner function is declared, it
+ * takes the Cell of each upvalue from the frame `captureDepths` out at
+ * slot `captureSlots`, or, with a depth of -1, from upvalue `captureSlots`
+ * of the function it is declared in. A closure thus holds the Cells of
+ * the variables it uses and nothing else, and the locals nobody captures
+ * stay plain values in plain slots.
+ *
+ * A method's frame has one more local after the parameters, `this`. The
+ * methods of a subclass are declared in a scope of their own holding
+ * `super`, the superclass, in a Cell, which methods using it capture like
+ * any other variable of an enclosing function.
+ *
+ * It also marks number-typed expressions, the ones that can only produce a
+ * number or fail, so the Interpreter can evaluate them without boxing.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private enum FunctionType { NONE, FUNCTION, METHOD, INITIALIZER }
+
+    private enum ClassType { NONE, CLASS, SUBCLASS }
+
+    private static class Local {
+        final int slot;
+        // The Var, Function or Class, null for a parameter, `this` or
+        // `super`.
+        final Stmt declaration;
+        boolean defined = false;
+        boolean captured = false;
+        // Uses in the declaring function, marked once the scope ends and
+        // it is known whether they go through a Cell.
+        final List<Expr> uses = new ArrayList<>();
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
+    /*
+     * A function being resolved, or the script around all of them.
+     */
+    private static class Function {
+        // NONE for the script.
+        final FunctionType type;
+        final Function enclosing;
+        // Index in scopes of the function's own first scope.
+        final int base;
+        // Upvalue index of each local the function captures.
+        final Map<Local, Integer> upvalues = new HashMap<>();
+        final List<Integer> captureDepths = new ArrayList<>();
+        final List<Integer> captureSlots = new ArrayList<>();
+
+        Function(FunctionType type, Function enclosing, int base) {
+            this.type = type;
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+    }
+
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+    private final ErrorReporter reporter;
+    private Function function = new Function(FunctionType.NONE, null, 0);
+    private ClassType currentClass = ClassType.NONE;
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void resolve(Expr expression) {
+        expression.accept(this);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    /**
+     * Closes the innermost scope. Its captured locals are Cells now, for
+     * their declarations and all their uses.
+     */
+    private void endScope() {
+        Map<String, Local> scope = scopes.remove(scopes.size() - 1);
+        for (Local local : scope.values()) {
+            if (!local.captured) continue;
+            if (local.declaration instanceof Stmt.Var) {
+                ((Stmt.Var) local.declaration).cell = true;
+            } else if (local.declaration instanceof Stmt.Function) {
+                ((Stmt.Function) local.declaration).cell = true;
+            } else if (local.declaration instanceof Stmt.Class) {
+                ((Stmt.Class) local.declaration).cell = true;
+            }
+            for (Expr use : local.uses) {
+                if (use instanceof Variable) {
+                    ((Variable) use).cell = true;
+                } else if (use instanceof Assign) {
+                    ((Assign) use).cell = true;
+                } else if (use instanceof This) {
+                    ((This) use).cell = true;
+                } else {
+                    ((Supper) use).cell = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Declares a variable in the innermost scope and returns its slot, or -1
+     * when the declaration is global.
+     *
+     * @param name Token
+     * @param declaration the Var or Function, null for a parameter
+     * @return int
+     */
+    private int declare(Token name, Stmt declaration) {
+        if (scopes.isEmpty()) return -1;
+
+        Map<String, Local> scope = scopes.get(scopes.size() - 1);
+        if (scope.containsKey(name.lexeme())) {
+            reporter.error(name, "Already a variable with this name in this scope.");
+        }
+        Local local = new Local(scope.size(), declaration);
+        scope.put(name.lexeme(), local);
+        return local.slot;
+    }
+
+    /**
+     * Declares `this` or `super`, which the user can't declare, already
+     * defined.
+     */
+    private void declareImplicit(String name) {
+        Map<String, Local> scope = scopes.get(scopes.size() - 1);
+        Local local = new Local(scope.size(), null);
+        local.defined = true;
+        scope.put(name, local);
+    }
+
+    private void define(Token name) {
+        if (scopes.isEmpty()) return;
+        scopes.get(scopes.size() - 1).get(name.lexeme()).defined = true;
+    }
+
+    /**
+     * Returns the index in scopes of the scope that declares the name, or
+     * -1 when no local scope declares it and the name is global.
+     */
+    private int scopeOf(Token name) {
+        return scopeOf(name.lexeme());
+    }
+
+    private int scopeOf(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the function's upvalue for a local of an
+     * enclosing function, adding the upvalue and the ones it needs in the
+     * functions in between.
+     *
+     * @param scope index in scopes of the local's scope
+     */
+    private int upvalue(Function function, int scope, Local local) {
+        Integer index = function.upvalues.get(local);
+        if (index != null) return index;
+
+        Function enclosing = function.enclosing;
+        if (scope >= enclosing.base) {
+            // A local of the function this one is declared in, found from
+            // the innermost frame at the declaration.
+            local.captured = true;
+            function.captureDepths.add(function.base - 1 - scope);
+            function.captureSlots.add(local.slot);
+        } else {
+            function.captureDepths.add(-1);
+            function.captureSlots.add(upvalue(enclosing, scope, local));
+        }
+        index = function.upvalues.size();
+        function.upvalues.put(local, index);
+        return index;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        resolve(expr.value);
+        int scope = scopeOf(expr.name);
+        if (scope < 0) return null;
+        Local local = scopes.get(scope).get(expr.name.lexeme());
+        if (scope >= function.base) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = local.slot;
+            local.uses.add(expr);
+        } else {
+            expr.upvalue = upvalue(function, scope, local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                expr.numeric = expr.left.numeric && expr.right.numeric;
+                break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        resolve(expr.callee);
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        resolve(expr.expression);
+        expr.numeric = expr.expression.numeric;
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        expr.numeric = expr.value instanceof Double;
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSupperExpr(Supper expr) {
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
+            return null;
+        }
+        if (currentClass != ClassType.SUBCLASS) {
+            reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            return null;
+        }
+        // The scope of `super` is around the methods, never in the
+        // function using it.
+        int scope = scopeOf("super");
+        expr.superclass = upvalue(function, scope, scopes.get(scope).get("super"));
+
+        scope = scopeOf("this");
+        Local local = scopes.get(scope).get("this");
+        if (scope >= function.base) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = local.slot;
+            local.uses.add(expr);
+        } else {
+            expr.upvalue = upvalue(function, scope, local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
+            return null;
+        }
+        int scope = scopeOf("this");
+        Local local = scopes.get(scope).get("this");
+        if (scope >= function.base) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = local.slot;
+            local.uses.add(expr);
+        } else {
+            expr.upvalue = upvalue(function, scope, local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        resolve(expr.right);
+        expr.numeric = expr.operator.type == TokenType.MINUS;
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        int scope = scopeOf(expr.name);
+        if (scope < 0) return null;
+        Local local = scopes.get(scope).get(expr.name.lexeme());
+        if (scope >= function.base) {
+            if (scope == scopes.size() - 1 && !local.defined) {
+                reporter.error(expr.name, "Can't read local variable in its own initializer.");
+            }
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = local.slot;
+            local.uses.add(expr);
+        } else {
+            expr.upvalue = upvalue(function, scope, local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        stmt.slot = declare(stmt.name, stmt);
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        define(stmt.name);
+        return null;
+    }
+
+    /**
+     * Counts the declarations that get a slot in the frame of the given
+     * statements, the ones not nested in a block.
+     */
+    private static int declarations(List<Stmt> statements) {
+        int locals = 0;
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function
+                    || statement instanceof Stmt.Class) {
+                locals++;
+            }
+        }
+        return locals;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // Only a block's own declarations live in its frame, so a block
+        // without any gets no scope and no frame at runtime.
+        stmt.locals = declarations(stmt.statements);
+        if (stmt.locals == 0) {
+            resolve(stmt.statements);
+            return null;
+        }
+
+        beginScope();
+        resolve(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            resolve(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // Defined before the body is resolved, so the body can call it.
+        stmt.slot = declare(stmt.name, stmt);
+        define(stmt.name);
+
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }
+
+    private void resolveFunction(Stmt.Function stmt, FunctionType type) {
+        function = new Function(type, function, scopes.size());
+        boolean method = type != FunctionType.FUNCTION;
+        stmt.locals = stmt.params.size() + (method ? 1 : 0) + declarations(stmt.body);
+        beginScope();
+        for (Token param : stmt.params) {
+            declare(param, null);
+            define(param);
+        }
+        if (method) declareImplicit("this");
+        resolve(stmt.body);
+
+        // The parameters and `this` are put in Cells by the call.
+        List<Integer> cellParams = new ArrayList<>();
+        for (Local local : scopes.get(scopes.size() - 1).values()) {
+            if (local.declaration == null && local.captured) cellParams.add(local.slot);
+        }
+        stmt.cellParams = toArray(cellParams);
+        endScope();
+        stmt.captureDepths = toArray(function.captureDepths);
+        stmt.captureSlots = toArray(function.captureSlots);
+        function = function.enclosing;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+        stmt.slot = declare(stmt.name, stmt);
+        define(stmt.name);
+
+        if (stmt.superclass != null) {
+            if (stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) {
+                reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+            beginScope();
+            declareImplicit("super");
+        }
+        for (Stmt.Function method : stmt.methods) {
+            resolveFunction(method, method.name.lexeme().equals("init")
+                    ? FunctionType.INITIALIZER : FunctionType.METHOD);
+        }
+        if (stmt.superclass != null) endScope();
+
+        currentClass = enclosingClass;
+        return null;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (function.type == FunctionType.NONE) {
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
+        }
+        if (stmt.value != null) {
+            if (function.type == FunctionType.INITIALIZER) {
+                reporter.error(stmt.keyword, "Can't return a value from an initializer.");
+            }
+            resolve(stmt.value);
+        }
+        return null;
+    }
+}
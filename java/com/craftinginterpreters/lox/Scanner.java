@@ -1,54 +1,146 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
-    private static final Map<String, TokenType> keywords;
-    
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
-    }
-
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    // Exact powers of ten for the fast path in parseNumber().
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // The whole source, or when streaming from a Reader, a window over the
+    // part of it the Parser has not finished with yet.
+    private final CharSequence source;
+    private final Reader reader;
+    private final char[] chunk;
+    private final TokenBuffer tokens;
+    private final ErrorReporter reporter;
+    private boolean done = false;
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reader = null;
+        this.chunk = null;
+        this.tokens = new TokenBuffer(source, null);
+        this.reporter = reporter;
+    }
+
+    /**
+     * Creates a Scanner that reads its source incrementally. Characters are
+     * only read when a token needs them and are dropped again once the
+     * Parser discards the tokens that use them.
+     *
+     * @param reader Reader
+     * @param reporter ErrorReporter
+     */
+    Scanner(Reader reader, ErrorReporter reporter) {
+        this.source = new StringBuilder();
+        this.reader = reader;
+        this.chunk = new char[8192];
+        this.tokens = new TokenBuffer(source, this);
+        this.reporter = reporter;
+    }
+
+    TokenBuffer scanTokens() {
+        while (scanNext()) {}
+        return tokens;
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
+    /**
+     * Returns the token buffer without scanning anything yet. The buffer
+     * scans more tokens as the Parser asks for them.
+     *
+     * @return TokenBuffer
+     */
+    TokenBuffer streamTokens() {
+        return tokens;
+    }
+
+    /**
+     * Scans until at least one more token is in the buffer.
+     *
+     * @return false once the EOF token has been added
+     */
+    boolean scanNext() {
+        if (done) return false;
+
+        int count = tokens.size();
+        while (tokens.size() == count) {
+            if (isAtEnd()) {
+                tokens.add(EOF, current, 0, null, line);
+                done = true;
+                break;
+            }
             start = current;
             scanToken();
         }
+        return true;
+    }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+    /**
+     * Whether another token can be scanned without blocking for input: the
+     * rest of the window holds more than whitespace and comments, or the
+     * reader has more ready.
+     *
+     * @return boolean
+     */
+    boolean hasInput() {
+        if (done) return true;
+        for (int i = current; i < source.length(); i++) {
+            char ch = source.charAt(i);
+            if (ch == '/' && i + 1 < source.length() && source.charAt(i + 1) == '/') {
+                while (i < source.length() && source.charAt(i) != '\n') i++;
+            } else if (ch != ' ' && ch != '\r' && ch != '\t' && ch != '\n') {
+                return true;
+            }
+        }
+        try {
+            return reader != null && reader.ready();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * Drops the first characters of the streaming window. Called between
+     * tokens, once no token in the buffer refers to them.
+     *
+     * @param count of characters to drop
+     */
+    void discard(int count) {
+        ((StringBuilder) source).delete(0, count);
+        start -= count;
+        current -= count;
+    }
+
+    int position() {
+        return current;
+    }
+
+    /**
+     * Reads the next chunk of a streaming source into the window.
+     *
+     * @return false when there is nothing left to read
+     */
+    private boolean fill() {
+        if (reader == null) return false;
+        try {
+            int read = reader.read(chunk);
+            if (read < 0) return false;
+            ((StringBuilder) source).append(chunk, 0, read);
+            return true;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
     }
 
     private void scanToken() {
@@ -100,7 +192,7 @@ class Scanner {
                 } else if (isAlpha(ch)) {
                     identifier();
                 } else {
-                    Lox.error(line, String.format("Unexpected character '%c' .", ch));
+                    reporter.error(line, String.format("Unexpected character '%c' .", ch));
                 }
                 break;
         }
@@ -112,7 +204,9 @@ class Scanner {
     }
 
     private char peekNext() {
-        if (current >= source.length()) return '\0';
+        while (current + 1 >= source.length()) {
+            if (!fill()) return '\0';
+        }
         return source.charAt(current+1);
     }
 
@@ -125,8 +219,7 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current - start, literal, line);
     }
 
     private boolean match(char expected) {
@@ -137,7 +230,7 @@ class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= source.length() && !fill();
     }
 
     private boolean isDigit(char ch) {
@@ -164,7 +257,7 @@ class Scanner {
         }
 
         advance();
-        String value = source.substring(start+1, current-1);
+        String value = source.subSequence(start+1, current-1).toString();
         addToken(STRING, value);
     }
 
@@ -176,14 +269,89 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
         
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, parseNumber());
+    }
+
+    /**
+     * Parses the number lexeme in place. When it has at most 15 significant
+     * digits and 22 decimals, both the digits and the power of ten are exact
+     * doubles and one division rounds correctly, so the result is the same as
+     * Double.parseDouble's. Longer numbers fall back to it.
+     *
+     * @return double
+     */
+    private double parseNumber() {
+        long digits = 0;
+        int count = 0;
+        int decimals = -1;
+        for (int i = start; i < current; i++) {
+            char ch = source.charAt(i);
+            if (ch == '.') {
+                decimals = 0;
+                continue;
+            }
+            digits = digits * 10 + (ch - '0');
+            count++;
+            if (decimals >= 0) decimals++;
+        }
+
+        if (count <= 15 && decimals <= 22) {
+            if (decimals <= 0) return digits;
+            return digits / POWERS_OF_TEN[decimals];
+        }
+        return Double.parseDouble(source.subSequence(start, current).toString());
     }
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        addToken(identifierType());
+    }
+
+    /**
+     * Matches keywords against the lexeme in the source, branching on the
+     * first letters, without building a String for the identifier.
+     *
+     * @return TokenType
+     */
+    private TokenType identifierType() {
+        switch (source.charAt(start)) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'c': return checkKeyword(1, "lass", CLASS);
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", IF);
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.charAt(start + offset + i) != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 }
@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * The hidden class of a LoxInstance: the slot of each of its fields in
+ * the instance's field array. Instances that got the same fields in the
+ * same order share a Shape, so a property access can remember the slot
+ * of a name per Shape instead of looking the name up every time.
+ *
+ * The Shapes of a class form a tree, with the class's empty Shape at the
+ * root. Adding a field moves an instance to the child for that name,
+ * made the first time some instance adds it and shared after that.
+ *
+ * The root belongs to the class declaration, not to the LoxClass, so the
+ * classes made by running a declaration again, in another run or another
+ * call of the function around it, share their Shapes and the caches
+ * keyed by them. A subclass's root is a child of its superclass's root,
+ * so a Shape also stands for the declarations of the whole chain of
+ * superclasses.
+ *
+ * A Shape never changes once made, only the tables of its children grow.
+ * Those are synchronized, so threads running the same script can share
+ * Shapes.
+ */
+final class Shape {
+    // Slot of each field.
+    private final Map<String, Integer> slots;
+    // The Shape after adding each name, made on demand.
+    private final Map<String, Shape> transitions = new HashMap<>();
+    // The roots of the subclasses of a root, made on demand.
+    private Map<Stmt.Class, Shape> subclasses = null;
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * The Shape of an instance without fields, the root of a class's tree.
+     * Each class declaration has its own.
+     */
+    static Shape empty() {
+        return new Shape(Map.of());
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * Returns the slot of a field, or -1 when this Shape has no such field.
+     */
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the Shape with one more field, in slot size().
+     *
+     * @param name a field this Shape doesn't have
+     */
+    synchronized Shape with(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+
+    /**
+     * Returns the root Shape of a subclass of the class this is the root
+     * of.
+     *
+     * @param declaration of the subclass
+     */
+    synchronized Shape subclass(Stmt.Class declaration) {
+        if (subclasses == null) subclasses = new HashMap<>();
+        return subclasses.computeIfAbsent(declaration, key -> empty());
+    }
+}
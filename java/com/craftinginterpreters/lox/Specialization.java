@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * The form a Binary or Unary node has rewritten itself to. A node starts
+ * UNINITIALIZED, picks a form from the operand types it sees the first time
+ * it runs, and from then on only checks that the operands still have those
+ * types. When the check fails the node rewrites itself to GENERIC for good,
+ * so a site that is not type stable stops paying for failed guesses.
+ *
+ * Comparisons have no generic form: any operand that is not a number is an
+ * error, so they always run as numbers.
+ */
+enum Specialization {
+    UNINITIALIZED,
+
+    // Binary, both operands numbers.
+    ADD_NUMBER,
+    EQUAL_NUMBER,
+    NOT_EQUAL_NUMBER,
+    GREATER_NUMBER,
+    GREATER_EQUAL_NUMBER,
+    LESS_NUMBER,
+    LESS_EQUAL_NUMBER,
+
+    // Binary, both operands strings.
+    ADD_STRING,
+
+    // Unary, operand a boolean.
+    NOT_BOOLEAN,
+
+    GENERIC
+}
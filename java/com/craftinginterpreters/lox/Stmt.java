@@ -9,8 +9,14 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitBlockStmt(Block stmt);
     R visitIfStmt(If stmt);
+    R visitWhileStmt(While stmt);
+    R visitFunctionStmt(Function stmt);
+    R visitReturnStmt(Return stmt);
+    R visitClassStmt(Class stmt);
   }
 
+  int line = 0;
+
  static class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
@@ -48,6 +54,8 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    int slot = -1;
+    boolean cell = false;
   }
  static class Block extends Stmt {
     Block(List<Stmt> statements) {
@@ -60,6 +68,9 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    int locals = 0;
+    int hotness = 0;
+    volatile JitCode compiled = null;
   }
  static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -77,6 +88,77 @@ abstract class Stmt {
     final Stmt thenBranch;
     final Stmt elseBranch;
   }
+ static class While extends Stmt {
+    While(Expr condition, Stmt body) {
+      this.condition = condition;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+       return visitor.visitWhileStmt(this);
+    }
+
+    final Expr condition;
+    final Stmt body;
+    int hotness = 0;
+    volatile JitCode compiled = null;
+  }
+ static class Function extends Stmt {
+    Function(Token name, List<Token> params, List<Stmt> body) {
+      this.name = name;
+      this.params = params;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+       return visitor.visitFunctionStmt(this);
+    }
+
+    final Token name;
+    final List<Token> params;
+    final List<Stmt> body;
+    int slot = -1;
+    int locals = 0;
+    boolean cell = false;
+    int[] cellParams = null;
+    int[] captureDepths = null;
+    int[] captureSlots = null;
+  }
+ static class Return extends Stmt {
+    Return(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+       return visitor.visitReturnStmt(this);
+    }
+
+    final Token keyword;
+    final Expr value;
+  }
+ static class Class extends Stmt {
+    Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
+      this.name = name;
+      this.superclass = superclass;
+      this.methods = methods;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+       return visitor.visitClassStmt(this);
+    }
+
+    final Token name;
+    final Expr.Variable superclass;
+    final List<Stmt.Function> methods;
+    int slot = -1;
+    boolean cell = false;
+    Shape shape = Shape.empty();
+  }
 
   abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,157 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/*
+ * The Scanner's output, stored as parallel arrays instead of one Token
+ * object per token: the type ordinal, where the lexeme starts in the source,
+ * its length and its line. Only NUMBER and STRING tokens have a literal, so
+ * literals sit in a side table indexed by the token they belong to.
+ *
+ * The Parser walks the arrays by index and only asks for a Token object for
+ * the tokens that end up in the syntax tree or in an error message.
+ *
+ * When the Scanner streams from a Reader, the buffer asks it for more tokens
+ * as the Parser reaches the end, and the Parser discards the tokens of each
+ * finished statement, so only one statement's worth is held at a time.
+ */
+class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+    // Scans more tokens on demand when streaming, null otherwise.
+    private final Scanner scanner;
+
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+
+    // Token index of every literal, in increasing order, and the literal.
+    private int[] literalTokens = new int[32];
+    private Object[] literals = new Object[32];
+    private int literalCount = 0;
+
+    TokenBuffer(CharSequence source, Scanner scanner) {
+        this.source = source;
+        this.scanner = scanner;
+    }
+
+    void add(TokenType type, int start, int length, Object literal, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        if (literal != null) {
+            if (literalCount == literals.length) {
+                literalTokens = Arrays.copyOf(literalTokens, literalCount * 2);
+                literals = Arrays.copyOf(literals, literalCount * 2);
+            }
+            literalTokens[literalCount] = count;
+            literals[literalCount] = literal;
+            literalCount++;
+        }
+
+        types[count] = (byte) type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    private void ensure(int index) {
+        while (index >= count && scanner != null && scanner.scanNext()) {}
+    }
+
+    /**
+     * Whether the entry is scanned already or can be without blocking for
+     * more input.
+     *
+     * @param index of the token
+     * @return boolean
+     */
+    boolean available(int index) {
+        return index < count || scanner == null || scanner.hasInput();
+    }
+
+    boolean is(int index, TokenType type) {
+        ensure(index);
+        return types[index] == type.ordinal();
+    }
+
+    TokenType type(int index) {
+        ensure(index);
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        ensure(index);
+        return lines[index];
+    }
+
+    Object literal(int index) {
+        ensure(index);
+        int found = Arrays.binarySearch(literalTokens, 0, literalCount, index);
+        return found < 0 ? null : literals[found];
+    }
+
+    /**
+     * Builds the Token object for one entry. The lexeme stays a range of the
+     * source until someone asks for it.
+     *
+     * @param index of the token
+     * @return Token
+     */
+    Token token(int index) {
+        ensure(index);
+        if (source instanceof String) {
+            return new Token(type(index), (String) source, starts[index], lengths[index],
+                    literal(index), lines[index]);
+        }
+        // A streaming window moves, so the lexeme is copied out right away.
+        String lexeme = source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+        return new Token(type(index), lexeme, literal(index), lines[index]);
+    }
+
+    /**
+     * Drops the first tokens, and when streaming, the source characters
+     * before the first token that is left.
+     *
+     * @param drop how many tokens to drop
+     */
+    void discard(int drop) {
+        int left = count - drop;
+        System.arraycopy(types, drop, types, 0, left);
+        System.arraycopy(starts, drop, starts, 0, left);
+        System.arraycopy(lengths, drop, lengths, 0, left);
+        System.arraycopy(lines, drop, lines, 0, left);
+        count = left;
+
+        int firstLiteral = 0;
+        while (firstLiteral < literalCount && literalTokens[firstLiteral] < drop) {
+            firstLiteral++;
+        }
+        literalCount -= firstLiteral;
+        for (int i = 0; i < literalCount; i++) {
+            literalTokens[i] = literalTokens[firstLiteral + i] - drop;
+            literals[i] = literals[firstLiteral + i];
+        }
+        Arrays.fill(literals, literalCount, literalCount + firstLiteral, null);
+
+        if (scanner != null) {
+            int chars = count > 0 ? starts[0] : scanner.position();
+            scanner.discard(chars);
+            for (int i = 0; i < count; i++) {
+                starts[i] -= chars;
+            }
+        }
+    }
+}
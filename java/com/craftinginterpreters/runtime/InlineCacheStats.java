@@ -0,0 +1,43 @@
+package com.craftinginterpreters.runtime;
+
+/*
+ * A snapshot of the OperatorSite inline caches. The sites are the ones of
+ * live compiled code, the hits and misses those of every site so far.
+ */
+public final class InlineCacheStats {
+    public final int sites;
+    public final int megamorphicSites;
+    public final long hits;
+    public final long misses;
+
+    private InlineCacheStats(int sites, int megamorphicSites, long hits, long misses) {
+        this.sites = sites;
+        this.megamorphicSites = megamorphicSites;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    public static InlineCacheStats snapshot() {
+        int sites = 0;
+        int megamorphic = 0;
+        for (OperatorSite site : OperatorSite.sites()) {
+            sites++;
+            if (site.isMegamorphic()) megamorphic++;
+        }
+        OperatorSite.Counts total = OperatorSite.Counts.total();
+        return new InlineCacheStats(sites, megamorphic, total.hits, total.misses);
+    }
+
+    /**
+     * Share of operator calls the caches answered, NaN before any call.
+     */
+    public double hitRate() {
+        return (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d sites (%d megamorphic), %d hits, %d misses, %.2f%% hit rate",
+                sites, megamorphicSites, hits, misses, hitRate() * 100);
+    }
+}
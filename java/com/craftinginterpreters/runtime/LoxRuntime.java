@@ -0,0 +1,175 @@
+package com.craftinginterpreters.runtime;
+
+/*
+ * The dynamic parts of Lox semantics, shared by the tree-walking
+ * Interpreter, the VM and the classes compiled by JvmCompiler: truthiness,
+ * equality, printing, and the operators that have to look at the types of
+ * their operands.
+ *
+ * Values are nil as null, numbers as Double, booleans as Boolean and
+ * strings as String. The operators behave like the Interpreter's, error
+ * messages included. Compiled code passes the line of the operator so
+ * errors can be reported without a Token.
+ */
+public final class LoxRuntime {
+    /** Value of a global that was never defined. */
+    public static final Object UNDEFINED = new Object();
+
+    private LoxRuntime() {}
+
+    /**
+     * The condition of a compiled loop. Javac treats `while (true)` and
+     * `while (1.0 < 0.0)` as constant and rejects the statements they
+     * make unreachable, a call is never constant. HotSpot inlines it.
+     */
+    public static boolean loop(boolean condition) {
+        return condition;
+    }
+
+    public static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (Boolean) object;
+        return true;
+    }
+
+    public static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+        return a.equals(b);
+    }
+
+    /**
+     * Same as Double.equals, without the boxing: NaN equals itself and 0.0
+     * does not equal -0.0.
+     */
+    public static boolean sameNumber(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    public static String stringify(Object object) {
+        if (object == null) return "nil";
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return object.toString();
+    }
+
+    public static void print(Object value) {
+        System.out.println(stringify(value));
+    }
+
+    /**
+     * Takes the value of an expression statement, which Java would not
+     * accept as a statement on its own.
+     */
+    public static void discard(Object value) {}
+
+    /**
+     * The operand of a unary minus.
+     *
+     * @throws ScriptError if it is not a number
+     */
+    public static double checkNumberOperand(Object operand, int line) {
+        if (operand instanceof Double) return (double) operand;
+        throw new ScriptError("Operand must be number.", line);
+    }
+
+    /**
+     * The operands of a binary arithmetic or comparison operator. Both
+     * have been evaluated by the time either is checked.
+     *
+     * @throws ScriptError if either is not a number
+     */
+    public static void checkNumberOperands(Object left, Object right, int line) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new ScriptError("Operand must be number", line);
+    }
+
+    /**
+     * Plus adds numbers and concatenates strings, and is nil for anything
+     * else.
+     */
+    public static Object add(Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+        }
+        return null;
+    }
+
+    public static double subtract(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left - (double) right;
+    }
+
+    public static double multiply(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left * (double) right;
+    }
+
+    public static double divide(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left / (double) right;
+    }
+
+    public static boolean greater(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left > (double) right;
+    }
+
+    public static boolean greaterEqual(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left >= (double) right;
+    }
+
+    public static boolean less(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left < (double) right;
+    }
+
+    public static boolean lessEqual(Object left, Object right, int line) {
+        checkNumberOperands(left, right, line);
+        return (double) left <= (double) right;
+    }
+
+    /**
+     * Reads a global.
+     *
+     * @param value what the global holds, UNDEFINED if it was never defined
+     * @throws ScriptError if it was never defined
+     */
+    public static Object get(Object value, String name, int line) {
+        if (value == UNDEFINED) {
+            throw new ScriptError("Undefined variable '" + name + "'", line);
+        }
+        return value;
+    }
+
+    /**
+     * Checks an assignment to a global, after its value was evaluated.
+     *
+     * @param current what the global holds now
+     * @param value the value assigned
+     * @return the value assigned
+     * @throws ScriptError if the global was never defined
+     */
+    public static Object assign(Object current, Object value, String name, int line) {
+        if (current == UNDEFINED) {
+            throw new ScriptError("Undefined variable '" + name + "'.", line);
+        }
+        return value;
+    }
+
+    /**
+     * Prints a runtime error the way the interpreter does.
+     */
+    public static void report(ScriptError error) {
+        System.err.println(error.getMessage() + "\n[livane " + error.line + "]");
+    }
+}
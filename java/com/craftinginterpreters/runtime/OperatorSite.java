@@ -0,0 +1,322 @@
+package com.craftinginterpreters.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/*
+ * An inline cache for one dynamically typed operator in generated JVM code.
+ *
+ * A site starts out linked to its fallback. The first time it runs, the
+ * fallback looks at the classes of the operands, picks the implementation
+ * for them (adding two Doubles, concatenating two Strings, ...) and puts it
+ * in front of the current target behind a guard on those classes. When the
+ * guard fails the fallback runs again and adds another entry. A site that
+ * has seen more than MAX_TYPES combinations is megamorphic: it is relinked
+ * to the generic LoxRuntime implementation for good.
+ *
+ * The operators and the types of their sites:
+ *
+ *   add                        (Object, Object) Object
+ *   greater, greaterEqual,
+ *   less, lessEqual            (Object, Object) boolean
+ *   equal, notEqual            (Object, Object) boolean
+ *
+ * Code that emits invokedynamic uses bootstrap as its bootstrap method,
+ * with the operator as the name and the line as the static argument. Code
+ * that can't emit invokedynamic, like the Java source JvmCompiler writes,
+ * keeps invoker(operator, line) in a static final field and calls
+ * invokeExact on it, which HotSpot optimizes the same way.
+ *
+ * Every site counts the calls its cache answered and the calls it did not,
+ * for InlineCacheStats. The counts are plain fields, so they are
+ * approximate when a site runs on several threads at once. They outlive
+ * the site: when it is collected with its class, a Cleaner adds them to
+ * the totals of the collected sites, so the sums never go down.
+ */
+public final class OperatorSite extends MutableCallSite {
+    /** Operand type combinations a site caches before going megamorphic. */
+    public static final int MAX_TYPES = 4;
+
+    private static final MethodType OBJECT_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object.class);
+    private static final MethodType BOOLEAN_TYPE =
+            MethodType.methodType(boolean.class, Object.class, Object.class);
+
+    private static final MethodHandle TYPES_ARE;
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle HIT;
+    private static final MethodHandle MISS;
+
+    // Every live site, for InlineCacheStats. Sites go away with the classes
+    // that use them.
+    private static final Map<OperatorSite, Boolean> SITES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /*
+     * The hits and misses of one site. The Counts of every live site are
+     * in LIVE, the ones of collected sites are summed in RETIRED, and both
+     * change under the lock on LIVE.
+     */
+    static final class Counts implements Runnable {
+        private static final Set<Counts> LIVE = new HashSet<>();
+        private static final Counts RETIRED = new Counts();
+
+        long hits = 0;
+        long misses = 0;
+
+        /**
+         * The hits and misses of every site there has been.
+         */
+        static Counts total() {
+            Counts total = new Counts();
+            synchronized (LIVE) {
+                for (Counts counts : LIVE) {
+                    total.hits += counts.hits;
+                    total.misses += counts.misses;
+                }
+                total.hits += RETIRED.hits;
+                total.misses += RETIRED.misses;
+            }
+            return total;
+        }
+
+        // Runs on the Cleaner's thread once the site is gone.
+        @Override
+        public void run() {
+            synchronized (LIVE) {
+                LIVE.remove(this);
+                RETIRED.hits += hits;
+                RETIRED.misses += misses;
+            }
+        }
+    }
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            TYPES_ARE = lookup.findStatic(OperatorSite.class, "typesAre",
+                    MethodType.methodType(boolean.class, Class.class, Class.class, Object.class, Object.class));
+            FALLBACK = lookup.findVirtual(OperatorSite.class, "fallback", OBJECT_TYPE);
+            HIT = lookup.findVirtual(OperatorSite.class, "hit", MethodType.methodType(void.class));
+            MISS = lookup.findVirtual(OperatorSite.class, "miss", MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private final String operator;
+    private final int line;
+    private int types = 0;
+    private boolean megamorphic = false;
+    private final Counts counts = new Counts();
+
+    private OperatorSite(String operator, MethodType type, int line) {
+        super(type);
+        this.operator = operator;
+        this.line = line;
+        setTarget(FALLBACK.bindTo(this).asType(type));
+        SITES.put(this, Boolean.TRUE);
+        synchronized (Counts.LIVE) {
+            Counts.LIVE.add(counts);
+        }
+        CLEANER.register(this, counts);
+    }
+
+    /**
+     * Bootstrap method for invokedynamic.
+     *
+     * @param caller the class the instruction is in
+     * @param operator the operator, see the table above
+     * @param type of the call, which must match the operator
+     * @param line source line, for error messages
+     * @return a new site
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String operator, MethodType type, int line) {
+        if (!type.equals(typeOf(operator))) {
+            throw new IllegalArgumentException("Operator " + operator + " has type " + typeOf(operator) + ".");
+        }
+        return new OperatorSite(operator, type, line);
+    }
+
+    /**
+     * A new site for one operator, as the handle to invoke.
+     *
+     * @param operator the operator, see the table above
+     * @param line source line, for error messages
+     * @return the site's dynamic invoker
+     */
+    public static MethodHandle invoker(String operator, int line) {
+        return new OperatorSite(operator, typeOf(operator), line).dynamicInvoker();
+    }
+
+    private static MethodType typeOf(String operator) {
+        switch (operator) {
+            case "add":
+                return OBJECT_TYPE;
+            case "greater":
+            case "greaterEqual":
+            case "less":
+            case "lessEqual":
+            case "equal":
+            case "notEqual":
+                return BOOLEAN_TYPE;
+            default:
+                throw new IllegalArgumentException("Unknown operator " + operator + ".");
+        }
+    }
+
+    static List<OperatorSite> sites() {
+        synchronized (SITES) {
+            return new ArrayList<>(SITES.keySet());
+        }
+    }
+
+    boolean isMegamorphic() {
+        return megamorphic;
+    }
+
+    private void hit() {
+        counts.hits++;
+    }
+
+    private void miss() {
+        counts.misses++;
+    }
+
+    /**
+     * Runs when no cache entry matches: adds one for the operand types, or
+     * gives up on caching, and then does the operation.
+     */
+    private synchronized Object fallback(Object left, Object right) throws Throwable {
+        counts.misses++;
+        MethodHandle target;
+        if (megamorphic) {
+            // Another thread ran into the old target while we relinked.
+            target = generic();
+        } else if (types == MAX_TYPES) {
+            megamorphic = true;
+            target = generic();
+            setTarget(MethodHandles.foldArguments(target.asType(type()), MISS.bindTo(this)));
+        } else {
+            Class<?> leftType = typeOf(left);
+            Class<?> rightType = typeOf(right);
+            target = specialize(leftType, rightType);
+            MethodHandle test = MethodHandles.insertArguments(TYPES_ARE, 0, leftType, rightType);
+            MethodHandle cached = MethodHandles.foldArguments(target.asType(type()), HIT.bindTo(this));
+            setTarget(MethodHandles.guardWithTest(test, cached, getTarget()));
+            types++;
+        }
+        return target.invoke(left, right);
+    }
+
+    private static Class<?> typeOf(Object value) {
+        return value == null ? Void.class : value.getClass();
+    }
+
+    private static boolean typesAre(Class<?> leftType, Class<?> rightType, Object left, Object right) {
+        return typeOf(left) == leftType && typeOf(right) == rightType;
+    }
+
+    /**
+     * The implementation of the operator for one pair of operand types.
+     */
+    private MethodHandle specialize(Class<?> left, Class<?> right) throws ReflectiveOperationException {
+        String variant = null;
+        if (left == Double.class && right == Double.class) {
+            variant = "Numbers";
+        } else if (left == String.class && right == String.class
+                && (operator.equals("add") || operator.equals("equal") || operator.equals("notEqual"))) {
+            variant = "Strings";
+        } else if (left == Boolean.class && right == Boolean.class
+                && (operator.equals("equal") || operator.equals("notEqual"))) {
+            variant = "Booleans";
+        }
+        if (variant == null) return generic();
+
+        MethodType type = operator.equals("add") ? OBJECT_TYPE : BOOLEAN_TYPE;
+        return MethodHandles.lookup().findStatic(OperatorSite.class, operator + variant, type);
+    }
+
+    /**
+     * The implementation of the operator for operands of any type.
+     */
+    private MethodHandle generic() throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        switch (operator) {
+            case "add":
+                return lookup.findStatic(LoxRuntime.class, "add", OBJECT_TYPE);
+            case "equal":
+                return lookup.findStatic(LoxRuntime.class, "isEqual", BOOLEAN_TYPE);
+            case "notEqual":
+                return lookup.findStatic(OperatorSite.class, "notEqual", BOOLEAN_TYPE);
+            default:
+                MethodHandle compare = lookup.findStatic(LoxRuntime.class, operator,
+                        BOOLEAN_TYPE.appendParameterTypes(int.class));
+                return MethodHandles.insertArguments(compare, 2, line);
+        }
+    }
+
+    private static Object addNumbers(Object left, Object right) {
+        return (double) left + (double) right;
+    }
+
+    private static Object addStrings(Object left, Object right) {
+        return (String) left + (String) right;
+    }
+
+    private static boolean greaterNumbers(Object left, Object right) {
+        return (double) left > (double) right;
+    }
+
+    private static boolean greaterEqualNumbers(Object left, Object right) {
+        return (double) left >= (double) right;
+    }
+
+    private static boolean lessNumbers(Object left, Object right) {
+        return (double) left < (double) right;
+    }
+
+    private static boolean lessEqualNumbers(Object left, Object right) {
+        return (double) left <= (double) right;
+    }
+
+    private static boolean equalNumbers(Object left, Object right) {
+        return LoxRuntime.sameNumber((double) left, (double) right);
+    }
+
+    private static boolean notEqualNumbers(Object left, Object right) {
+        return !LoxRuntime.sameNumber((double) left, (double) right);
+    }
+
+    private static boolean equalStrings(Object left, Object right) {
+        return left.equals(right);
+    }
+
+    private static boolean notEqualStrings(Object left, Object right) {
+        return !left.equals(right);
+    }
+
+    private static boolean equalBooleans(Object left, Object right) {
+        return (boolean) left == (boolean) right;
+    }
+
+    private static boolean notEqualBooleans(Object left, Object right) {
+        return (boolean) left != (boolean) right;
+    }
+
+    private static boolean notEqual(Object left, Object right) {
+        return !LoxRuntime.isEqual(left, right);
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.runtime;
+
+/*
+ * A runtime error in a compiled script, carrying the line the failing
+ * operation came from since there is no Token to point at.
+ */
+public class ScriptError extends RuntimeException {
+    public final int line;
+
+    public ScriptError(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+}
@@ -16,30 +16,44 @@ class GenerateAst {
         }
         String outputDir = args[0];
         defineAST(outputDir, "Expr", Arrays.asList(
-            "Assign: Token name, Expr value",
-            "Binary: Expr left, Token operator, Expr right",
-            "Call: Expr callee, Token paren, List<Expr> arguments",
-            "Get: Expr object, Token name",
+            "Assign: Token name, Expr value : int depth = -1, int slot = -1, int upvalue = -1, boolean cell = false",
+            "Binary: Expr left, Token operator, Expr right : Specialization specialization = Specialization.UNINITIALIZED",
+            "Call: Expr callee, Token paren, List<Expr> arguments : InvokeCache cache = InvokeCache.EMPTY",
+            "Get: Expr object, Token name : PropertyCache cache = PropertyCache.EMPTY",
             "Grouping: Expr expression",
             "Literal: Object value",
             "Logical: Expr left, Token operator, Expr right",
-            "Set: Expr Object, Token name, Expr value",
-            "Supper: Token keyword, Token method",
-            "This: Token keyword",
-            "Unary: Token operator, Expr right",
-            "Variable: Token name"
+            "Set: Expr object, Token name, Expr value : PropertyCache cache = PropertyCache.EMPTY",
+            "Supper: Token keyword, Token method : int superclass = -1, "
+                    + "int depth = -1, int slot = -1, int upvalue = -1, boolean cell = false",
+            "This: Token keyword : int depth = -1, int slot = -1, int upvalue = -1, boolean cell = false",
+            "Unary: Token operator, Expr right : Specialization specialization = Specialization.UNINITIALIZED",
+            "Variable: Token name : int depth = -1, int slot = -1, int upvalue = -1, boolean cell = false"
+        ), Arrays.asList(
+            "boolean numeric = false"
         ));
 
         defineAST(outputDir, "Stmt", Arrays.asList(
                 "Expression: Expr expression",
                 "Print: Expr expression",
-                "Var: Token name, Expr initializer",
-                "Block: List<Stmt> statements",
-                "If: Expr condition, Stmt thenBranch, Stmt elseBranch"
+                "Var: Token name, Expr initializer : int slot = -1, boolean cell = false",
+                "Block: List<Stmt> statements : int locals = 0, int hotness = 0, volatile JitCode compiled = null",
+                "If: Expr condition, Stmt thenBranch, Stmt elseBranch",
+                "While: Expr condition, Stmt body : int hotness = 0, volatile JitCode compiled = null",
+                "Function: Token name, List<Token> params, List<Stmt> body : int slot = -1, int locals = 0, boolean cell = false, "
+                        + "int[] cellParams = null, int[] captureDepths = null, int[] captureSlots = null",
+                "Return: Token keyword, Expr value",
+                "Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods : int slot = -1, boolean cell = false, Shape shape = Shape.empty()"
+        ), Arrays.asList(
+                "int line = 0"
         ));
     }
 
-    private static void defineAST(String outputDir, String baseName, List<String> types) throws IOException {
+    /**
+     * Writes the base class and one subclass per type. Base annotations are
+     * mutable fields shared by every subclass, filled in by later passes.
+     */
+    private static void defineAST(String outputDir, String baseName, List<String> types, List<String> baseAnnotations) throws IOException {
         String path = outputDir + File.separator + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8);
 
@@ -52,11 +66,18 @@ class GenerateAst {
         defineVisitor(writer, baseName, types);
 
         writer.println();
+        if (!baseAnnotations.isEmpty()) {
+            for (String annotation : baseAnnotations) {
+                writer.println("  " + annotation + ";");
+            }
+            writer.println();
+        }
         
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String annotations = type.split(":").length > 2 ? type.split(":")[2].trim() : null;
+            defineType(writer, baseName, className, fields, annotations);
         }
 
         writer.println();
@@ -65,7 +86,11 @@ class GenerateAst {
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    /**
+     * Fields after a second ':' are annotations filled in by later passes such
+     * as the Resolver. They are mutable and not part of the constructor.
+     */
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String annotationList) {
             writer.println(" static class " + className + " extends " + baseName + " {");
 
             // Constructor
@@ -89,6 +114,11 @@ class GenerateAst {
             for (String field : fields) {
                 writer.println("    final " + field + ";");
             }
+            if (annotationList != null) {
+                for (String annotation : annotationList.split(", ")) {
+                    writer.println("    " + annotation + ";");
+                }
+            }
 
     
             writer.println("  }");
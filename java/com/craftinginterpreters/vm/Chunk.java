@@ -0,0 +1,68 @@
+package com.craftinginterpreters.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A compiled program: a dense instruction array, the source line of every
+ * byte in it, and the constant pool the instructions index into.
+ */
+public final class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+
+    Object[] constants = new Object[16];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    int maxStack = 0;
+
+    public void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    public void writeShort(int value, int line) {
+        write((value >> 8) & 0xff, line);
+        write(value & 0xff, line);
+    }
+
+    public void patchShort(int offset, int value) {
+        code[offset] = (byte) ((value >> 8) & 0xff);
+        code[offset + 1] = (byte) (value & 0xff);
+    }
+
+    /**
+     * Adds a value to the constant pool, reusing the slot of an equal value
+     * added before.
+     *
+     * @param value Double or String
+     * @return index of the constant
+     */
+    public int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public void setMaxStack(int maxStack) {
+        this.maxStack = maxStack;
+    }
+}
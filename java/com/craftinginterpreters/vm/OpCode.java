@@ -0,0 +1,51 @@
+package com.craftinginterpreters.vm;
+
+/*
+ * Instruction set of the VM. Every instruction is one opcode byte followed
+ * by its operands. Operands are unsigned 16 bit, big endian:
+ *
+ * CONSTANT index       push constants[index]
+ * GET_LOCAL slot       push stack[slot]
+ * SET_LOCAL slot       stack[slot] = top, keep top
+ * GET_GLOBAL name      push globals[constants[name]]
+ * DEFINE_GLOBAL name   globals[constants[name]] = pop
+ * SET_GLOBAL name      globals[constants[name]] = top, keep top
+ * JUMP offset          ip += offset
+ * JUMP_IF_FALSE offset if top is falsey, ip += offset. Does not pop.
+ * LOOP offset          ip -= offset
+ * POPN count           pop count values
+ *
+ * Constants are bytes so the dispatch loop switches on a dense int range.
+ */
+public final class OpCode {
+    public static final byte CONSTANT = 0;
+    public static final byte NIL = 1;
+    public static final byte TRUE = 2;
+    public static final byte FALSE = 3;
+    public static final byte POP = 4;
+    public static final byte POPN = 5;
+    public static final byte GET_LOCAL = 6;
+    public static final byte SET_LOCAL = 7;
+    public static final byte GET_GLOBAL = 8;
+    public static final byte DEFINE_GLOBAL = 9;
+    public static final byte SET_GLOBAL = 10;
+    public static final byte EQUAL = 11;
+    public static final byte NOT_EQUAL = 12;
+    public static final byte GREATER = 13;
+    public static final byte GREATER_EQUAL = 14;
+    public static final byte LESS = 15;
+    public static final byte LESS_EQUAL = 16;
+    public static final byte ADD = 17;
+    public static final byte SUBTRACT = 18;
+    public static final byte MULTIPLY = 19;
+    public static final byte DIVIDE = 20;
+    public static final byte NOT = 21;
+    public static final byte NEGATE = 22;
+    public static final byte PRINT = 23;
+    public static final byte JUMP = 24;
+    public static final byte JUMP_IF_FALSE = 25;
+    public static final byte RETURN = 26;
+    public static final byte LOOP = 27;
+
+    private OpCode() {}
+}
@@ -0,0 +1,212 @@
+package com.craftinginterpreters.vm;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.craftinginterpreters.runtime.LoxRuntime.isEqual;
+import static com.craftinginterpreters.runtime.LoxRuntime.isTruthy;
+import static com.craftinginterpreters.runtime.LoxRuntime.stringify;
+
+/*
+ * Stack based virtual machine executing a Chunk. Locals live in the value
+ * stack at the slot the compiler gave them and temporaries are pushed above
+ * them. Globals outlive a single chunk so the REPL can run one line at a
+ * time against the same VM.
+ *
+ * Values are represented the same way as in the tree-walking Interpreter:
+ * nil is null, numbers are Double, booleans are Boolean and strings are
+ * String. Operators behave the same, error messages included.
+ */
+public final class VM {
+    private final Map<String, Object> globals = new HashMap<>();
+    // Where PRINT goes.
+    private final PrintWriter out;
+
+    public VM() {
+        this(new PrintWriter(System.out, true));
+    }
+
+    public VM(PrintWriter out) {
+        this.out = out;
+    }
+
+    public void interpret(Chunk chunk) {
+        final byte[] code = chunk.code;
+        final int[] lines = chunk.lines;
+        final Object[] constants = chunk.constants;
+        final Object[] stack = new Object[chunk.maxStack];
+        int sp = 0;
+        int ip = 0;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp++] = constants[index];
+                    break;
+                }
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                case OpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                case OpCode.POP: stack[--sp] = null; break;
+                case OpCode.POPN: {
+                    int n = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    while (n-- > 0) stack[--sp] = null;
+                    break;
+                }
+                case OpCode.GET_LOCAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp++] = stack[slot];
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[slot] = stack[sp - 1];
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw new VMError("Undefined variable '" + name + "'", lines[ip - 1]);
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.put(name, stack[--sp]);
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        throw new VMError("Undefined variable '" + name + "'.", lines[ip - 1]);
+                    }
+                    globals.put(name, stack[sp - 1]);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = !isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a > (double) b;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a >= (double) b;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a < (double) b;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a <= (double) b;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double) a + (double) b;
+                    } else if (a instanceof String && b instanceof String) {
+                        stack[sp - 1] = (String) a + (String) b;
+                    } else {
+                        stack[sp - 1] = null;
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a - (double) b;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a * (double) b;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, lines[ip - 1]);
+                    stack[sp - 1] = (double) a / (double) b;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    Object a = stack[sp - 1];
+                    if (!(a instanceof Double)) {
+                        throw new VMError("Operand must be number.", lines[ip - 1]);
+                    }
+                    stack[sp - 1] = -(double) a;
+                    break;
+                }
+                case OpCode.PRINT:
+                    out.println(stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (!isTruthy(stack[sp - 1])) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OpCode.RETURN:
+                    return;
+                default:
+                    throw new VMError("Unknown opcode " + code[ip - 1] + ".", lines[ip - 1]);
+            }
+        }
+    }
+
+    private static void checkNumberOperands(Object a, Object b, int line) {
+        if (a instanceof Double && b instanceof Double) return;
+        throw new VMError("Operand must be number", line);
+    }
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.vm;
+
+public class VMError extends RuntimeException {
+    public final int line;
+
+    VMError(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+}
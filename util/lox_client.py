@@ -0,0 +1,84 @@
+#!/usr/bin/env python3
+"""Runs Lox on a jlox daemon, see Daemon.java for the protocol.
+
+Usage: lox_client.py [--socket=path] [options] [script]
+
+Start the daemon first:
+
+    java -cp build/java com.craftinginterpreters.lox.Lox --daemon=/tmp/jlox.sock
+
+The socket is --socket, else $LOX_SOCKET, else /tmp/jlox.sock. The other
+arguments go to the daemon as they are. Without a script the program is
+read from standard input. Exits with the status the daemon sends.
+"""
+
+import os
+import socket
+import struct
+import sys
+import threading
+
+
+def send(connection, kind, payload=b""):
+    connection.sendall(kind + struct.pack(">i", len(payload)) + payload)
+
+
+def receive(connection, size):
+    data = b""
+    while len(data) < size:
+        chunk = connection.recv(size - len(data))
+        if not chunk:
+            raise EOFError("The daemon closed the connection.")
+        data += chunk
+    return data
+
+
+def forward_stdin(connection):
+    try:
+        while True:
+            chunk = sys.stdin.buffer.read1(65536)
+            if not chunk:
+                break
+            send(connection, b"I", chunk)
+        send(connection, b"Z")
+    except OSError:
+        # The daemon is done and stopped reading.
+        pass
+
+
+def main(arguments):
+    path = os.environ.get("LOX_SOCKET", "/tmp/jlox.sock")
+    if arguments and arguments[0].startswith("--socket="):
+        path = arguments.pop(0)[len("--socket="):]
+
+    connection = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    try:
+        connection.connect(path)
+    except OSError as error:
+        print("Could not connect to the daemon on " + path + ": " + str(error), file=sys.stderr)
+        return 69
+
+    send(connection, b"D", os.getcwd().encode("utf-8"))
+    for argument in arguments:
+        send(connection, b"A", argument.encode("utf-8"))
+    send(connection, b"R")
+    threading.Thread(target=forward_stdin, args=(connection,), daemon=True).start()
+
+    while True:
+        kind, size = struct.unpack(">ci", receive(connection, 5))
+        payload = receive(connection, size)
+        if kind == b"O":
+            sys.stdout.buffer.write(payload)
+            sys.stdout.buffer.flush()
+        elif kind == b"E":
+            sys.stderr.buffer.write(payload)
+            sys.stderr.buffer.flush()
+        elif kind == b"X":
+            return struct.unpack(">i", payload)[0]
+
+
+if __name__ == "__main__":
+    # Don't wait for the thread that is still reading standard input.
+    status = main(sys.argv[1:])
+    sys.stdout.flush()
+    os._exit(status)